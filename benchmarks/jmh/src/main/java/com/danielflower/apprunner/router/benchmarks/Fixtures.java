@@ -0,0 +1,141 @@
+package com.danielflower.apprunner.router.benchmarks;
+
+import com.danielflower.apprunner.router.mgmt.AppEvent;
+import com.danielflower.apprunner.router.mgmt.AppEventsOutcome;
+import com.danielflower.apprunner.router.mgmt.Cluster;
+import com.danielflower.apprunner.router.mgmt.ClusterApps;
+import com.danielflower.apprunner.router.mgmt.MapManager;
+import com.danielflower.apprunner.router.mgmt.Runner;
+import com.danielflower.apprunner.router.mgmt.RunnerApps;
+import com.danielflower.apprunner.router.web.ProxyMap;
+import com.danielflower.apprunner.router.web.Route;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Builds clusters and proxy maps of realistic sizes without needing any real app runners.
+ * Apps are spread round-robin over the runners, so app <code>i</code> lives on runner <code>i % runners</code>.
+ */
+public class Fixtures {
+
+    public static String appName(int index) {
+        return "app-" + index;
+    }
+
+    public static List<Runner> runners(int count) {
+        List<Runner> runners = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            runners.add(new Runner("runner-" + i, URI.create("http://runner-" + i + ".example.org:8080"), Integer.MAX_VALUE));
+        }
+        return runners;
+    }
+
+    public static ProxyMap proxyMap(List<Runner> runners, int apps) {
+        ProxyMap proxyMap = new ProxyMap();
+        proxyMap.update(routes -> {
+            for (int i = 0; i < apps; i++) {
+                Runner runner = runners.get(i % runners.size());
+                routes.put(Route.create(appName(i), runner.url.resolve("/" + appName(i))));
+            }
+        });
+        return proxyMap;
+    }
+
+    public static Cluster cluster(List<Runner> runners) throws Exception {
+        File dir = Files.createTempDirectory("router-benchmarks").toFile();
+        dir.deleteOnExit();
+        File config = new File(dir, "cluster.json");
+        config.deleteOnExit();
+        Cluster cluster = Cluster.load(config, new NoOpMapManager());
+        URI forwardedHost = URI.create("http://router.example.org");
+        for (Runner runner : runners) {
+            cluster.addRunner(forwardedHost, runner);
+        }
+        return cluster;
+    }
+
+    /**
+     * A request that only knows its method, URI, query string and attributes. Anything else the code under test
+     * asks for throws, which makes it obvious if the hot path starts depending on more of the request.
+     */
+    public static HttpServletRequest request(String method, String uri, String query) {
+        HttpServletRequest unsupported = (HttpServletRequest) Proxy.newProxyInstance(Fixtures.class.getClassLoader(),
+            new Class[]{HttpServletRequest.class}, (proxy, m, args) -> {
+                throw new UnsupportedOperationException(m.getName());
+            });
+        Map<String, Object> attributes = new HashMap<>();
+        return new HttpServletRequestWrapper(unsupported) {
+            public Object getAttribute(String name) {
+                return attributes.get(name);
+            }
+
+            public void setAttribute(String name, Object o) {
+                attributes.put(name, o);
+            }
+
+            public void removeAttribute(String name) {
+                attributes.remove(name);
+            }
+
+            public String getMethod() {
+                return method;
+            }
+
+            public String getRequestURI() {
+                return uri;
+            }
+
+            public String getQueryString() {
+                return query;
+            }
+        };
+    }
+
+    private static class NoOpMapManager implements MapManager {
+        private static final RunnerApps NO_APPS = RunnerApps.parse("{\"apps\":[]}".getBytes(StandardCharsets.UTF_8));
+
+        public List<RunnerApps> loadAllApps(URI forwardedHost, List<Runner> runners) {
+            return Collections.emptyList();
+        }
+
+        public ClusterApps loadAvailableApps(URI forwardedHost, List<Runner> runners, long timeoutMillis) {
+            return new ClusterApps(Collections.emptyList(), Collections.emptyMap());
+        }
+
+        public RunnerApps loadRunner(URI forwardedHost, Runner runner) {
+            return NO_APPS;
+        }
+
+        public CompletableFuture<RunnerApps> loadRunnerAsync(URI forwardedHost, Runner runner) {
+            return CompletableFuture.completedFuture(NO_APPS);
+        }
+
+        public CompletableFuture<Optional<Route>> lookupApp(URI forwardedHost, String appName, List<Runner> runners) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        public AppEventsOutcome applyEvents(URI forwardedHost, Runner runner, List<AppEvent> events) {
+            return new AppEventsOutcome(0, events.size(), false);
+        }
+
+        public void removeRunner(Runner runner) {
+        }
+    }
+
+    private Fixtures() {
+    }
+}
@@ -0,0 +1,52 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import com.danielflower.apprunner.router.benchmarks.Fixtures;
+import com.danielflower.apprunner.router.web.ProxyMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClusterBenchmark {
+
+    @Param({"10", "1000", "50000"})
+    public int apps;
+
+    @Param({"1", "20", "200"})
+    public int runners;
+
+    private Cluster cluster;
+    private ProxyMap proxyMap;
+    private URI lastRunnerApp;
+
+    @Setup
+    public void setup() throws Exception {
+        List<Runner> runnerList = Fixtures.runners(runners);
+        proxyMap = Fixtures.proxyMap(runnerList, apps);
+        cluster = Fixtures.cluster(runnerList);
+        lastRunnerApp = runnerList.get(runners - 1).url.resolve("/some-app");
+    }
+
+    /**
+     * Includes releasing the reservation, as every app creation does.
+     */
+    @Benchmark
+    public Optional<Runner> allocateRunner() {
+        Optional<Runner> runner = cluster.allocateRunner(proxyMap);
+        runner.ifPresent(Runner::releaseReservation);
+        return runner;
+    }
+
+    @Benchmark
+    public Optional<Runner> getRunnerByURL() {
+        return cluster.getRunnerByURL(lastRunnerApp);
+    }
+}
@@ -0,0 +1,46 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import com.danielflower.apprunner.router.benchmarks.Fixtures;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of reading a runner's <code>GET /api/v1/apps</code> response, which happens for every runner whenever
+ * the routes are refreshed or the apps are listed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RunnerAppsBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int apps;
+
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        JSONArray all = new JSONArray();
+        for (int i = 0; i < apps; i++) {
+            String name = Fixtures.appName(i);
+            all.put(new JSONObject()
+                .put("name", name)
+                .put("url", "http://router.example.org/" + name + "/")
+                .put("contributors", "Some Person, Another Person")
+                .put("lastBuild", new JSONObject().put("status", "success").put("commitId", "0123456789abcdef")));
+        }
+        body = new JSONObject().put("apps", all).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public RunnerApps parse() {
+        return RunnerApps.parse(body);
+    }
+}
@@ -0,0 +1,100 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import com.danielflower.apprunner.router.benchmarks.Fixtures;
+import com.danielflower.apprunner.router.web.ProxyMap;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long it takes after a restart until the router has its routes: a cold start asks every runner for its
+ * apps, whereas a warm start reads the routes saved by the previous run. The runners here are local servers that
+ * answer immediately, so real cold starts are slower still.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StartupBenchmark {
+
+    @Param({"1000", "50000"})
+    public int apps;
+
+    @Param({"1", "20"})
+    public int runners;
+
+    private final List<Server> servers = new ArrayList<>();
+    private final List<Runner> runnerList = new ArrayList<>();
+    private final HttpClient httpClient = new HttpClient();
+    private File savedRoutes;
+
+    @Setup
+    public void setup() throws Exception {
+        httpClient.start();
+        for (int r = 0; r < runners; r++) {
+            JSONArray runnerApps = new JSONArray();
+            for (int i = r; i < apps; i += runners) {
+                runnerApps.put(new JSONObject().put("name", Fixtures.appName(i)).put("url", "http://router.example.org/" + Fixtures.appName(i) + "/"));
+            }
+            byte[] body = new JSONObject().put("apps", runnerApps).toString().getBytes(StandardCharsets.UTF_8);
+            Server server = new Server(0);
+            server.setHandler(new AbstractHandler() {
+                public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+                    baseRequest.setHandled(true);
+                    response.setContentType("application/json");
+                    response.setContentLength(body.length);
+                    response.getOutputStream().write(body);
+                }
+            });
+            server.start();
+            servers.add(server);
+            int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            runnerList.add(new Runner("runner-" + r, URI.create("http://localhost:" + port), Integer.MAX_VALUE));
+        }
+
+        ProxyMap proxyMap = coldStart();
+        savedRoutes = Files.createTempFile("routes", ".json").toFile();
+        savedRoutes.deleteOnExit();
+        new RouteStore(savedRoutes, proxyMap).save();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        for (Server server : servers) {
+            server.stop();
+        }
+        httpClient.stop();
+    }
+
+    @Benchmark
+    public ProxyMap coldStart() throws InterruptedException {
+        ProxyMap proxyMap = new ProxyMap();
+        new ClusterQueryingMapManager(proxyMap, httpClient).loadAvailableApps(URI.create("/"), runnerList, 45000);
+        return proxyMap;
+    }
+
+    @Benchmark
+    public ProxyMap warmStart() {
+        ProxyMap proxyMap = new ProxyMap();
+        new RouteStore(savedRoutes, proxyMap).load(runnerList);
+        return proxyMap;
+    }
+}
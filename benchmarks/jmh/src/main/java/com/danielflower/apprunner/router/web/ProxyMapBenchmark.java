@@ -0,0 +1,57 @@
+package com.danielflower.apprunner.router.web;
+
+import com.danielflower.apprunner.router.benchmarks.Fixtures;
+import com.danielflower.apprunner.router.mgmt.Runner;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyMapBenchmark {
+
+    @Param({"10", "1000", "50000"})
+    public int apps;
+
+    @Param({"1", "20", "200"})
+    public int runners;
+
+    private ProxyMap proxyMap;
+    private String existingApp;
+    private String newApp;
+    private URI newAppUrl;
+
+    @Setup
+    public void setup() {
+        List<Runner> runnerList = Fixtures.runners(runners);
+        proxyMap = Fixtures.proxyMap(runnerList, apps);
+        existingApp = Fixtures.appName(apps / 2);
+        newApp = Fixtures.appName(apps);
+        newAppUrl = runnerList.get(0).url.resolve("/" + newApp);
+    }
+
+    @Benchmark
+    public Route get() {
+        return proxyMap.get(existingApp);
+    }
+
+    @Benchmark
+    public Route getMissing() {
+        return proxyMap.get("no-such-app");
+    }
+
+    /**
+     * Adding and removing are measured together so that the map stays the same size across iterations.
+     */
+    @Benchmark
+    public void addThenRemove() {
+        proxyMap.add(newApp, newAppUrl);
+        proxyMap.remove(newApp);
+    }
+}
@@ -0,0 +1,70 @@
+package com.danielflower.apprunner.router.web;
+
+import com.danielflower.apprunner.router.benchmarks.Fixtures;
+import com.danielflower.apprunner.router.mgmt.Cluster;
+import com.danielflower.apprunner.router.mgmt.Runner;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-request cost of working out where a request should be proxied to.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReverseProxyBenchmark {
+
+    @Param({"10", "1000", "50000"})
+    public int apps;
+
+    @Param({"1", "20", "200"})
+    public int runners;
+
+    private ReverseProxy reverseProxy;
+    private HttpServletRequest webRequest;
+    private HttpServletRequest apiRequest;
+    private HttpServletRequest appCreation;
+    private HttpServletRequest unknownApp;
+
+    @Setup
+    public void setup() throws Exception {
+        List<Runner> runnerList = Fixtures.runners(runners);
+        ProxyMap proxyMap = Fixtures.proxyMap(runnerList, apps);
+        Cluster cluster = Fixtures.cluster(runnerList);
+        reverseProxy = new ReverseProxy(cluster, proxyMap, null, new UnknownApps(proxyMap, 10000, 10000), LoadBalancer.ROUND_ROBIN, RetryPolicy.NONE);
+
+        String app = Fixtures.appName(apps / 2);
+        webRequest = Fixtures.request("GET", "/" + app + "/static/css/site.css", "v=12");
+        apiRequest = Fixtures.request("POST", "/api/v1/apps/" + app + "/deploy", null);
+        appCreation = Fixtures.request("POST", "/api/v1/apps", null);
+        unknownApp = Fixtures.request("GET", "/no-such-app/", null);
+    }
+
+    @Benchmark
+    public String webRequest() {
+        return reverseProxy.rewriteTarget(webRequest);
+    }
+
+    @Benchmark
+    public String apiRequest() {
+        return reverseProxy.rewriteTarget(apiRequest);
+    }
+
+    @Benchmark
+    public String appCreation() {
+        String target = reverseProxy.rewriteTarget(appCreation);
+        ReverseProxy.releaseReservation(appCreation);
+        return target;
+    }
+
+    @Benchmark
+    public String unknownApp() {
+        return reverseProxy.rewriteTarget(unknownApp);
+    }
+}
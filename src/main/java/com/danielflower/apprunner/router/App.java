@@ -1,22 +1,39 @@
 package com.danielflower.apprunner.router;
 
 import com.danielflower.apprunner.router.mgmt.Cluster;
+import com.danielflower.apprunner.router.mgmt.ClusterApps;
 import com.danielflower.apprunner.router.mgmt.ClusterQueryingMapManager;
+import com.danielflower.apprunner.router.mgmt.HealthChecker;
 import com.danielflower.apprunner.router.mgmt.MapManager;
+import com.danielflower.apprunner.router.mgmt.Reconciler;
+import com.danielflower.apprunner.router.mgmt.RouteStore;
+import com.danielflower.apprunner.router.mgmt.Runner;
+import com.danielflower.apprunner.router.mgmt.RunnerLimits;
+import com.danielflower.apprunner.router.web.AppsCallAggregator;
+import com.danielflower.apprunner.router.web.LoadBalancer;
 import com.danielflower.apprunner.router.web.ProxyMap;
+import com.danielflower.apprunner.router.web.RetryPolicy;
+import com.danielflower.apprunner.router.web.UnknownApps;
 import com.danielflower.apprunner.router.web.WebServer;
+import com.danielflower.apprunner.router.web.v1.RouterResource;
 import com.danielflower.apprunner.router.web.v1.RunnerResource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.net.URI;
+import java.util.Map;
 
 public class App {
     public static final Logger log = LoggerFactory.getLogger(App.class);
+    private static final long STARTUP_TIMEOUT_MILLIS = 45000;
+    private static final long ROUTE_SAVE_INTERVAL_MILLIS = 5000;
 
     private final Config config;
     private WebServer webServer;
+    private Reconciler reconciler;
+    private HealthChecker healthChecker;
+    private RouteStore routeStore;
 
     public App(Config config) {
         this.config = config;
@@ -30,17 +47,63 @@ public class App {
 
 
         String defaultAppName = config.get(Config.DEFAULT_APP_NAME, null);
-        MapManager mapManager = ClusterQueryingMapManager.create(proxyMap);
-        Cluster cluster = Cluster.load(new File(dataDir, "cluster.json"), mapManager);
-        mapManager.loadAllApps(URI.create("/"), cluster.getRunners());
+        RunnerLimits runnerLimits = new RunnerLimits(
+            config.getInt(Config.RUNNER_MAX_CONCURRENCY, 0), config.getInt(Config.RUNNER_INITIAL_CONCURRENCY, 20),
+            config.getInt(Config.RUNNER_MAX_CONNECTIONS, RunnerLimits.DEFAULT_MAX_CONNECTIONS),
+            config.getInt(Config.RUNNER_MAX_QUEUED_REQUESTS, RunnerLimits.DEFAULT_MAX_QUEUED_REQUESTS),
+            config.getInt(Config.RUNNER_CIRCUIT_FAILURE_THRESHOLD, RunnerLimits.DEFAULT_CIRCUIT_FAILURE_THRESHOLD),
+            config.getLong(Config.RUNNER_CIRCUIT_OPEN_MILLIS, RunnerLimits.DEFAULT_CIRCUIT_OPEN_MILLIS));
+        MapManager mapManager = ClusterQueryingMapManager.create(proxyMap, runnerLimits);
+        Cluster cluster = Cluster.load(new File(dataDir, "cluster.json"), mapManager, runnerLimits);
+        healthChecker = HealthChecker.create(cluster,
+            config.getLong(Config.HEALTH_CHECK_INTERVAL, 5000), config.getLong(Config.HEALTH_CHECK_TIMEOUT, 2000));
+        healthChecker.start();
+        routeStore = new RouteStore(new File(dataDir, "routes.json"), proxyMap);
+        if (routeStore.load(cluster.getRunners()) >= 0) {
+            // serve from the saved routes straight away, and correct them once the runners answer
+            for (Runner runner : cluster.getRunners()) {
+                mapManager.loadRunnerAsync(URI.create("/"), runner).whenComplete((apps, error) -> {
+                    if (error != null) {
+                        log.warn("Could not check the saved routes of " + runner.id + ": " + error.getMessage());
+                    }
+                });
+            }
+        } else {
+            ClusterApps apps = mapManager.loadAvailableApps(URI.create("/"), cluster.getRunners(), STARTUP_TIMEOUT_MILLIS);
+            for (Map.Entry<Runner, Throwable> failure : apps.failures.entrySet()) {
+                log.warn("Starting without the apps of " + failure.getKey().id + ": " + failure.getValue().getMessage());
+            }
+        }
+        routeStore.start(ROUTE_SAVE_INTERVAL_MILLIS);
+
+        AppsCallAggregator appsCallAggregator = new AppsCallAggregator(mapManager, cluster, proxyMap,
+            config.getBoolean(Config.AGGREGATE_PARTIAL_RESULTS, false), config.getLong(Config.AGGREGATE_RUNNER_TIMEOUT, 5000),
+            config.getLong(Config.AGGREGATE_CACHE_TTL, 0));
+
+        UnknownApps unknownApps = new UnknownApps(proxyMap,
+            config.getInt(Config.UNKNOWN_APPS_MAX, 10000), config.getLong(Config.UNKNOWN_APPS_TTL, 10000));
 
         String accessLogFilename = config.get("access.log.path", null);
-        webServer = new WebServer(appRunnerPort, cluster, mapManager, proxyMap, defaultAppName, new RunnerResource(cluster), accessLogFilename);
+        webServer = new WebServer(appRunnerPort, cluster, mapManager, proxyMap, defaultAppName, new RunnerResource(cluster), new RouterResource(appsCallAggregator), appsCallAggregator, unknownApps,
+            LoadBalancer.fromConfig(config.get(Config.LOAD_BALANCER, LoadBalancer.ROUND_ROBIN.configName)),
+            new RetryPolicy(config.getInt(Config.RETRY_BUDGET_PERCENT, 10), config.getLong(Config.RETRY_BACKOFF, 50)), accessLogFilename);
         webServer.start();
+
+        reconciler = new Reconciler(cluster, mapManager,
+            config.getLong(Config.RECONCILE_INTERVAL, 30000), config.getLong(Config.RECONCILE_JITTER, 5000));
+        reconciler.start();
     }
 
     public void shutdown() {
         log.info("Shutdown invoked");
+        if (reconciler != null) {
+            reconciler.close();
+            reconciler = null;
+        }
+        if (healthChecker != null) {
+            healthChecker.close();
+            healthChecker = null;
+        }
         if (webServer != null) {
             log.info("Stopping web server");
             try {
@@ -48,9 +111,17 @@ public class App {
             } catch (Exception e) {
                 log.info("Error while stopping", e);
             }
-            log.info("Shutdown complete");
             webServer = null;
         }
+        if (routeStore != null) {
+            try {
+                routeStore.close();
+            } catch (Exception e) {
+                log.info("Error while saving the routes", e);
+            }
+            routeStore = null;
+        }
+        log.info("Shutdown complete");
     }
 
     public static void main(String[] args) {
@@ -16,6 +16,24 @@ public class Config {
     public static final String SERVER_PORT = "appserver.port";
     public static final String DATA_DIR = "appserver.data.dir";
     public static final String DEFAULT_APP_NAME = "appserver.default.app.name";
+    public static final String AGGREGATE_PARTIAL_RESULTS = "appserver.aggregate.partial.results";
+    public static final String AGGREGATE_RUNNER_TIMEOUT = "appserver.aggregate.runner.timeout.millis";
+    public static final String AGGREGATE_CACHE_TTL = "appserver.aggregate.cache.ttl.millis";
+    public static final String RECONCILE_INTERVAL = "appserver.reconcile.interval.millis";
+    public static final String RECONCILE_JITTER = "appserver.reconcile.jitter.millis";
+    public static final String UNKNOWN_APPS_MAX = "appserver.unknown.apps.max";
+    public static final String UNKNOWN_APPS_TTL = "appserver.unknown.apps.ttl.millis";
+    public static final String LOAD_BALANCER = "appserver.load.balancer";
+    public static final String RUNNER_MAX_CONCURRENCY = "appserver.runner.max.concurrency";
+    public static final String RUNNER_INITIAL_CONCURRENCY = "appserver.runner.initial.concurrency";
+    public static final String RUNNER_MAX_CONNECTIONS = "appserver.runner.max.connections";
+    public static final String RUNNER_MAX_QUEUED_REQUESTS = "appserver.runner.max.queued.requests";
+    public static final String RUNNER_CIRCUIT_FAILURE_THRESHOLD = "appserver.runner.circuit.failure.threshold";
+    public static final String RUNNER_CIRCUIT_OPEN_MILLIS = "appserver.runner.circuit.open.millis";
+    public static final String HEALTH_CHECK_INTERVAL = "appserver.health.check.interval.millis";
+    public static final String HEALTH_CHECK_TIMEOUT = "appserver.health.check.timeout.millis";
+    public static final String RETRY_BUDGET_PERCENT = "appserver.retry.budget.percent";
+    public static final String RETRY_BACKOFF = "appserver.retry.backoff.millis";
 
     public static Config load(String[] commandLineArgs) throws IOException {
         Map<String, String> systemEnv = System.getenv();
@@ -77,6 +95,33 @@ public class Config {
         }
     }
 
+    public int getInt(String name, int defaultValue) {
+        return get(name, null) == null ? defaultValue : getInt(name);
+    }
+
+    public long getLong(String name, long defaultValue) {
+        String s = get(name, null);
+        if (s == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            throw new InvalidConfigException("Could not convert " + name + "=" + s + " to a long");
+        }
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        String s = get(name, null);
+        if (s == null) {
+            return defaultValue;
+        }
+        if ("true".equalsIgnoreCase(s) || "false".equalsIgnoreCase(s)) {
+            return Boolean.parseBoolean(s);
+        }
+        throw new InvalidConfigException("Could not convert " + name + "=" + s + " to a boolean");
+    }
+
     public File getOrCreateDir(String name) {
         File f = new File(get(name));
         try {
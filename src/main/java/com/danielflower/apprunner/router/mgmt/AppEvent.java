@@ -0,0 +1,69 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import org.json.JSONObject;
+
+import java.net.URI;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * A change to the apps of a runner, pushed to the router by the runner (or something watching it). Each runner
+ * numbers its events so that the router can tell if it has missed any.
+ */
+public class AppEvent {
+    public enum Type {
+        CREATED, DELETED
+    }
+
+    public final long sequence;
+    public final Type type;
+    public final String appName;
+
+    public AppEvent(long sequence, Type type, String appName) {
+        this.sequence = sequence;
+        this.type = type;
+        this.appName = appName;
+    }
+
+    /**
+     * Reads an event such as <code>{"sequence": 12, "type": "created", "app": "my-app"}</code>
+     * @throws IllegalArgumentException if the event is not valid
+     */
+    public static AppEvent fromJSON(JSONObject json) {
+        if (!json.has("sequence") || !json.has("type") || isBlank(json.optString("app"))) {
+            throw new IllegalArgumentException("Events need a sequence, type and app but got " + json);
+        }
+        long sequence = json.optLong("sequence", -1);
+        if (sequence < 0) {
+            throw new IllegalArgumentException("The sequence must be a non-negative number but was " + json.get("sequence"));
+        }
+        Type type;
+        try {
+            type = Type.valueOf(json.getString("type").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown event type " + json.get("type"));
+        }
+        String appName = json.getString("app");
+        if (!isPathSegment(appName)) {
+            throw new IllegalArgumentException("The app name must be usable as a single URL path segment but was " + appName);
+        }
+        return new AppEvent(sequence, type, appName);
+    }
+
+    private static boolean isPathSegment(String name) {
+        if (name.equals(".") || name.equals("..")) {
+            return false;
+        }
+        try {
+            URI uri = URI.create("/" + name);
+            return ("/" + name).equals(uri.getRawPath()) && uri.getRawQuery() == null && uri.getRawFragment() == null
+                && name.indexOf('/') == -1;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public String toString() {
+        return "#" + sequence + " " + type + " " + appName;
+    }
+}
@@ -0,0 +1,25 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import org.json.JSONObject;
+
+/**
+ * What the router did with a batch of app events
+ */
+public class AppEventsOutcome {
+    public final int applied;
+    public final int ignored;
+    public final boolean resyncing;
+
+    public AppEventsOutcome(int applied, int ignored, boolean resyncing) {
+        this.applied = applied;
+        this.ignored = ignored;
+        this.resyncing = resyncing;
+    }
+
+    public JSONObject toJSON() {
+        return new JSONObject()
+            .put("applied", applied)
+            .put("ignored", ignored)
+            .put("resyncing", resyncing);
+    }
+}
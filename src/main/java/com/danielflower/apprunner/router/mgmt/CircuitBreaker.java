@@ -0,0 +1,138 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stops requests being sent to a runner that appears to be down, so that they fail straight away rather than
+ * each waiting to time out.
+ * <p>
+ * The circuit opens after a number of requests in a row get no response, or as soon as a health check fails.
+ * While it is open, one request is let through as a trial every so often; the circuit closes again as soon as a
+ * request or a health check gets a response.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        /** Requests are sent as normal */
+        CLOSED,
+        /** Requests are turned away */
+        OPEN,
+        /** The next request will be let through to see if the runner has recovered */
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong nextTrialAt = new AtomicLong();
+    private final LongAdder rejected = new LongAdder();
+    private volatile boolean open;
+    private volatile String lastFailure;
+
+    public CircuitBreaker(RunnerLimits limits) {
+        this.failureThreshold = limits.circuitFailureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(limits.circuitOpenMillis);
+    }
+
+    public boolean isEnabled() {
+        return failureThreshold > 0;
+    }
+
+    /**
+     * @return True if the request can be sent to the runner, which is always the case while the circuit is closed
+     */
+    public boolean allowRequest() {
+        if (!open) {
+            return true;
+        }
+        long now = System.nanoTime();
+        long trialAt = nextTrialAt.get();
+        if (now - trialAt >= 0 && nextTrialAt.compareAndSet(trialAt, now + openNanos)) {
+            return true;
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * @return False if the circuit is open or half-open, in which case the runner should not be given new work
+     */
+    public boolean isClosed() {
+        return !open;
+    }
+
+    public State state() {
+        if (!open) {
+            return State.CLOSED;
+        }
+        return System.nanoTime() - nextTrialAt.get() >= 0 ? State.HALF_OPEN : State.OPEN;
+    }
+
+    /**
+     * Called when the runner responds to anything
+     * @return True if this closed the circuit
+     */
+    public boolean onSuccess() {
+        if (consecutiveFailures.get() != 0) {
+            consecutiveFailures.set(0);
+        }
+        if (open) {
+            open = false;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called when a request failed without the runner responding at all
+     * @return True if this opened the circuit
+     */
+    public boolean onFailure(String reason) {
+        lastFailure = reason;
+        return consecutiveFailures.incrementAndGet() >= failureThreshold && trip();
+    }
+
+    /**
+     * Opens the circuit straight away, such as when the runner fails a health check
+     * @return True if this opened the circuit
+     */
+    public boolean onHealthCheckFailure(String reason) {
+        lastFailure = reason;
+        consecutiveFailures.incrementAndGet();
+        return trip();
+    }
+
+    private boolean trip() {
+        if (!isEnabled()) {
+            return false;
+        }
+        nextTrialAt.set(System.nanoTime() + openNanos);
+        boolean wasOpen = open;
+        open = true;
+        return !wasOpen;
+    }
+
+    /**
+     * @return The number of requests turned away because the circuit was open
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject()
+            .put("enabled", isEnabled())
+            .put("state", state().name())
+            .put("consecutiveFailures", consecutiveFailures.get())
+            .put("rejected", rejected());
+        if (lastFailure != null) {
+            json.put("lastFailure", lastFailure);
+        }
+        return json;
+    }
+}
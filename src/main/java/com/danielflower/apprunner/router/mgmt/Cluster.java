@@ -1,6 +1,7 @@
 package com.danielflower.apprunner.router.mgmt;
 
 import com.danielflower.apprunner.router.web.ProxyMap;
+import com.danielflower.apprunner.router.web.RouteTable;
 import org.apache.commons.io.FileUtils;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -10,6 +11,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -18,33 +20,53 @@ public class Cluster {
 
     private final File config;
     private final List<Runner> runners = new CopyOnWriteArrayList<>();
+    private final Map<String, Runner> runnersByAuthority = new ConcurrentHashMap<>();
     private final MapManager querier;
+    private final RunnerLimits runnerLimits;
 
-    private Cluster(File config, MapManager querier, List<Runner> runners) {
+    private Cluster(File config, MapManager querier, RunnerLimits runnerLimits, List<Runner> runners) {
         this.config = config;
         this.querier = querier;
+        this.runnerLimits = runnerLimits;
         this.runners.addAll(runners);
+        for (Runner runner : runners) {
+            runnersByAuthority.put(runner.url.getAuthority(), runner);
+        }
     }
 
     public static Cluster load(File config, MapManager mapManager) throws IOException {
+        return load(config, mapManager, RunnerLimits.DEFAULT);
+    }
+
+    /**
+     * @param runnerLimits The limits given to every runner
+     */
+    public static Cluster load(File config, MapManager mapManager, RunnerLimits runnerLimits) throws IOException {
         ArrayList<Runner> runners = new ArrayList<>();
         boolean isNew = !config.exists();
         if (config.exists()) {
             JSONObject json = new JSONObject(FileUtils.readFileToString(config));
             for (Object o : json.getJSONArray("runners")) {
-                runners.add(Runner.fromJSON((JSONObject) o));
+                runners.add(Runner.fromJSON((JSONObject) o, runnerLimits));
             }
         } else {
             config.getParentFile().mkdirs();
             config.createNewFile();
         }
-        Cluster cluster = new Cluster(config, mapManager, runners);
+        Cluster cluster = new Cluster(config, mapManager, runnerLimits, runners);
         if (isNew) {
             cluster.save();
         }
         return cluster;
     }
 
+    /**
+     * @return The limits that new runners should be given
+     */
+    public RunnerLimits runnerLimits() {
+        return runnerLimits;
+    }
+
     public List<Runner> getRunners() {
         return runners;
     }
@@ -52,13 +74,19 @@ public class Cluster {
     public synchronized void addRunner(URI forwardedForHost, Runner runner) throws Exception {
         if (!runners.contains(runner)) {
             runners.add(runner);
+            runnersByAuthority.put(runner.url.getAuthority(), runner);
         }
         querier.loadRunner(forwardedForHost, runner);
         save();
     }
 
+    public AppEventsOutcome applyEvents(URI forwardedForHost, Runner runner, List<AppEvent> events) {
+        return querier.applyEvents(forwardedForHost, runner, events);
+    }
+
     public synchronized void deleteRunner(Runner runner) throws IOException {
         runners.remove(runner);
+        runnersByAuthority.remove(runner.url.getAuthority(), runner);
         querier.removeRunner(runner);
         save();
     }
@@ -76,39 +104,77 @@ public class Cluster {
             .put("runners", all);
     }
 
+    /**
+     * @return The same as {@link #toJSON()} but with how busy each runner currently is
+     */
+    public JSONObject toStatusJSON() {
+        JSONArray all = new JSONArray();
+        for (Runner runner : runners) {
+            all.put(runner.toStatusJSON());
+        }
+        return new JSONObject()
+            .put("runners", all);
+    }
+
     public Optional<Runner> runner(String id) {
         return runners.stream()
             .filter(runner -> runner.id.equals(id))
             .findFirst();
     }
 
-    public Optional<Runner> allocateRunner(ConcurrentHashMap<String, URI> currentMapping) {
-        Runner leastContended = null;
-        for (Runner runner : runners) {
-            if (!runner.hasCapacity()) {
-                continue;
+    /**
+     * Picks the runner with the fewest apps (including pending creations) that still has capacity, or of those
+     * with equally few apps the one with the fewest requests in flight, and reserves
+     * a slot on it. The caller must call {@link Runner#releaseReservation()} once the creation has finished,
+     * whether or not it succeeded.
+     */
+    public Optional<Runner> allocateRunner(ProxyMap proxyMap) {
+        while (true) {
+            RouteTable routes = proxyMap.snapshot();
+            Runner leastContended = null;
+            int leastApps = Integer.MAX_VALUE;
+            long leastInFlight = Long.MAX_VALUE;
+            for (Runner runner : runners) {
+                if (!runner.circuitBreaker().isClosed()) {
+                    continue; // don't put new apps on a runner that seems to be down
+                }
+                int num = runner.appsIncludingReservations(routes.countOn(runner.url.getAuthority()));
+                if (num < runner.maxApps && num <= leastApps) {
+                    long inFlight = runner.inFlightRequests();
+                    if (num < leastApps || inFlight < leastInFlight) {
+                        leastContended = runner;
+                        leastApps = num;
+                        leastInFlight = inFlight;
+                    }
+                }
             }
-            int num = (int)currentMapping.values().stream()
-                .filter(url ->  url.getAuthority().equals(runner.url.getAuthority()))
-                .count();
-            runner.numberOfApps.set(num);
-            if (leastContended == null || leastContended.numberOfApps.get() > num) {
-                leastContended = runner;
+            if (leastContended == null) {
+                return Optional.empty();
             }
+            String authority = leastContended.url.getAuthority();
+            if (leastContended.tryReserve(() -> proxyMap.snapshot().countOn(authority))) {
+                return Optional.of(leastContended);
+            }
+            // another creation got in first, so look again
         }
-        if (leastContended != null) {
-            leastContended.numberOfApps.incrementAndGet();
-        }
-        return Optional.ofNullable(leastContended);
     }
 
     public Optional<Runner> getRunnerByURL(URI url) {
-        for (Runner runner : runners) {
-            if (runner.url.getAuthority().equals(url.getAuthority())) {
-                return Optional.of(runner);
-            }
-        }
-        return Optional.empty();
+        return runnerAt(url.getAuthority());
+    }
+
+    /**
+     * @param authority The host and port of a runner, e.g. <code>runner:8080</code>
+     */
+    public Optional<Runner> runnerAt(String authority) {
+        return authority == null ? Optional.empty() : Optional.ofNullable(runnersByAuthority.get(authority));
+    }
+
+    /**
+     * @return The limits of the runner at the given host and port, or the default limits if there is no such runner
+     */
+    public RunnerLimits limitsAt(String authority) {
+        return runnerAt(authority).map(Runner::limits).orElse(runnerLimits);
     }
 
     public void updateProxyMap(Runner runner, ProxyMap proxyMap) {
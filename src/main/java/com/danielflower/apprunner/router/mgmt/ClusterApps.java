@@ -0,0 +1,22 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The apps reported by the runners that answered a query, along with the reasons the others did not.
+ */
+public class ClusterApps {
+    public final List<RunnerApps> results;
+    public final Map<Runner, Throwable> failures;
+
+    public ClusterApps(List<RunnerApps> results, Map<Runner, Throwable> failures) {
+        this.results = Collections.unmodifiableList(results);
+        this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    public boolean isPartial() {
+        return !failures.isEmpty();
+    }
+}
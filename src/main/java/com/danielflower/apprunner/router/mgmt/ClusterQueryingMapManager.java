@@ -1,27 +1,37 @@
 package com.danielflower.apprunner.router.mgmt;
 
+import com.danielflower.apprunner.router.problems.AppRunnerException;
 import com.danielflower.apprunner.router.web.ProxyMap;
+import com.danielflower.apprunner.router.web.Route;
+import com.danielflower.apprunner.router.web.RouteTable;
 import org.eclipse.jetty.client.HttpClient;
-import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.BufferingResponseListener;
+import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http.HttpMethod;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ClusterQueryingMapManager implements MapManager {
     private static final Logger log = LoggerFactory.getLogger(ClusterQueryingMapManager.class);
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private static final long TIMEOUT_SECONDS = 45;
+    private static final int MAX_RESPONSE_BYTES = 64 * 1024 * 1024;
+    private static final long LOOKUP_TIMEOUT_SECONDS = 5;
 
     private final ProxyMap proxyMap;
     private final HttpClient httpClient;
+    private final Map<String, LastResponses> lastResponses = new ConcurrentHashMap<>();
+    private final Map<String, EventSequence> eventSequences = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Optional<Route>>> lookups = new ConcurrentHashMap<>();
 
     public ClusterQueryingMapManager(ProxyMap proxyMap, HttpClient httpClient) {
         this.proxyMap = proxyMap;
@@ -29,7 +39,15 @@ public class ClusterQueryingMapManager implements MapManager {
     }
 
     public static MapManager create(ProxyMap proxyMap) {
-        HttpClient httpClient = new HttpClient(new SslContextFactory(true));
+        return create(proxyMap, RunnerLimits.DEFAULT);
+    }
+
+    /**
+     * @param runnerLimits The connection pool sizes to use for each runner. Only a few requests at a time are made to
+     *                     each runner to load its apps, so the per-runner overrides are not needed here.
+     */
+    public static MapManager create(ProxyMap proxyMap, RunnerLimits runnerLimits) {
+        HttpClient httpClient = PerRunnerTransport.newHttpClient(authority -> runnerLimits, new SslContextFactory(true));
         try {
             httpClient.start();
         } catch (Exception e) {
@@ -39,53 +57,350 @@ public class ClusterQueryingMapManager implements MapManager {
     }
 
     @Override
-    public List<JSONObject> loadAllApps(URI forwardedHost, List<Runner> runners) throws InterruptedException, TimeoutException, ExecutionException {
-        List<JSONObject> results = new ArrayList<>();
+    public List<RunnerApps> loadAllApps(URI forwardedHost, List<Runner> runners) throws InterruptedException, TimeoutException, ExecutionException {
         log.info("Looking up app info from " + runners);
-        List<Future<JSONObject>> futures = new ArrayList<>();
+        List<CompletableFuture<RunnerApps>> futures = new ArrayList<>();
+        CompletableFuture<Void> allDone = new CompletableFuture<>();
         for (Runner runner : runners) {
-            futures.add(executorService.submit(() -> loadRunner(forwardedHost, runner)));
+            CompletableFuture<RunnerApps> future = loadRunnerAsync(forwardedHost, runner, TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+            future.whenComplete((info, error) -> {
+                if (error != null) {
+                    // no need to wait for the others if one has already failed
+                    allDone.completeExceptionally(error);
+                }
+            });
+            futures.add(future);
         }
-        for (Future<JSONObject> future : futures) {
-            results.add(future.get(45, TimeUnit.SECONDS));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()]))
+            .thenRun(() -> allDone.complete(null));
+
+        allDone.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        List<RunnerApps> results = new ArrayList<>();
+        for (CompletableFuture<RunnerApps> future : futures) {
+            results.add(future.join());
         }
         log.info("Got " + results.size() + " results");
         return results;
     }
 
     @Override
-    public JSONObject loadRunner(URI forwardedHost, Runner runner) throws Exception {
+    public ClusterApps loadAvailableApps(URI forwardedHost, List<Runner> runners, long timeoutMillis) throws InterruptedException {
+        log.info("Looking up app info from " + runners + " allowing " + timeoutMillis + "ms each");
+        Map<Runner, CompletableFuture<RunnerApps>> futures = new LinkedHashMap<>();
+        for (Runner runner : runners) {
+            futures.put(runner, loadRunnerAsync(forwardedHost, runner, timeoutMillis));
+        }
+        try {
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[futures.size()]))
+                .get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // the individual futures are checked below
+        }
+
+        List<RunnerApps> results = new ArrayList<>();
+        Map<Runner, Throwable> failures = new LinkedHashMap<>();
+        for (Map.Entry<Runner, CompletableFuture<RunnerApps>> entry : futures.entrySet()) {
+            CompletableFuture<RunnerApps> future = entry.getValue();
+            if (!future.isDone()) {
+                failures.put(entry.getKey(), new TimeoutException("No response within " + timeoutMillis + "ms"));
+            } else {
+                try {
+                    results.add(future.join());
+                } catch (CompletionException | CancellationException e) {
+                    failures.put(entry.getKey(), e.getCause() == null ? e : e.getCause());
+                }
+            }
+        }
+        if (!failures.isEmpty()) {
+            log.warn("Got " + results.size() + " results with failures from " + failures.keySet());
+        } else {
+            log.info("Got " + results.size() + " results");
+        }
+        return new ClusterApps(results, failures);
+    }
+
+    @Override
+    public RunnerApps loadRunner(URI forwardedHost, Runner runner) throws Exception {
+        try {
+            return loadRunnerAsync(forwardedHost, runner).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<RunnerApps> loadRunnerAsync(URI forwardedHost, Runner runner) {
+        return loadRunnerAsync(forwardedHost, runner, TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+    }
+
+    /**
+     * Runners are asked for their apps conditionally, using the validators of the last response seen from the same
+     * runner for the same host. If the runner says nothing has changed, or sends exactly the same bytes again, the
+     * previous result is used without being parsed again. Either way the apps are checked against the current
+     * routes, which may have been changed by something else since, such as pushed events or a proxied deletion.
+     */
+    private CompletableFuture<RunnerApps> loadRunnerAsync(URI forwardedHost, Runner runner, long timeoutMillis) {
         URI uri = runner.url.resolve("/api/v1/apps");
-        ContentResponse resp = httpClient.newRequest(uri)
+        String host = forwardedHost.getAuthority();
+        LastResponses lastResponses = lastResponses(runner);
+        LastResponse previous = lastResponses.get(host);
+        CompletableFuture<RunnerApps> future = new CompletableFuture<>();
+        Request request = httpClient.newRequest(uri)
             .method(HttpMethod.GET)
-            .header(HttpHeader.HOST, forwardedHost.getAuthority())
-            .send();
-        if (resp.getStatus() != 200) {
-            throw new RuntimeException("Unable to load apps from " + uri + " - message was " + resp.getContentAsString());
-        }
-        JSONObject info = new JSONObject(resp.getContentAsString());
-        List<String> addedNames = new ArrayList<>();
-        for (Object app : info.getJSONArray("apps")) {
-            String name = ((JSONObject) app).getString("name");
-            addedNames.add(name);
-            proxyMap.add(name, uri.resolve("/" + name));
-        }
-        for (Map.Entry<String, URI> entry : proxyMap.getAll().entrySet()) {
-            if (entry.getValue().getAuthority().equals(runner.url.getAuthority())
-                && !addedNames.contains(entry.getKey())) {
-                log.info("Detected a missing app, so will remove it from the proxy map: " + entry.getKey() + " at " + entry.getValue());
-                proxyMap.remove(entry.getKey());
+            .header(HttpHeader.HOST, host)
+            .timeout(timeoutMillis, TimeUnit.MILLISECONDS);
+        if (previous != null) {
+            request.header(HttpHeader.IF_NONE_MATCH, previous.etag);
+            request.header(HttpHeader.IF_MODIFIED_SINCE, previous.lastModified);
+        }
+        request.send(new BufferingResponseListener(MAX_RESPONSE_BYTES) {
+            public void onComplete(Result result) {
+                Response response = result.getResponse();
+                if (result.isFailed()) {
+                    future.completeExceptionally(result.getFailure());
+                } else if (response.getStatus() == 304 && previous != null) {
+                    log.debug(uri + " has not changed");
+                    try {
+                        updateRoutes(runner, previous.apps);
+                        future.complete(previous.apps);
+                    } catch (Exception e) {
+                        future.completeExceptionally(e);
+                    }
+                } else if (response.getStatus() != 200) {
+                    future.completeExceptionally(new AppRunnerException("Unable to load apps from " + uri + " - message was " + getContentAsString()));
+                } else {
+                    try {
+                        byte[] body = getContent();
+                        RunnerApps apps;
+                        if (previous != null && Arrays.equals(previous.apps.body(), body)) {
+                            log.debug(uri + " returned the same apps as last time");
+                            apps = previous.apps;
+                        } else {
+                            apps = RunnerApps.parse(body);
+                        }
+                        updateRoutes(runner, apps);
+                        HttpFields headers = response.getHeaders();
+                        lastResponses.put(host, new LastResponse(headers.get(HttpHeader.ETAG), headers.get(HttpHeader.LAST_MODIFIED), apps));
+                        future.complete(apps);
+                    } catch (Exception e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            }
+        });
+        return future;
+    }
+
+    private LastResponses lastResponses(Runner runner) {
+        return lastResponses.computeIfAbsent(runner.url.getAuthority(), authority -> new LastResponses());
+    }
+
+    /**
+     * Works out what has changed for this runner against the current routes first, so that the common case of
+     * nothing having changed does not need to build a new route table at all.
+     */
+    private void updateRoutes(Runner runner, RunnerApps apps) {
+        Set<String> names = new HashSet<>(apps.size() * 4 / 3 + 1);
+        for (int i = 0; i < apps.size(); i++) {
+            names.add(apps.name(i));
+        }
+        String authority = runner.url.getAuthority();
+        RouteTable current = proxyMap.snapshot();
+        List<Route> changed = new ArrayList<>();
+        for (String name : names) {
+            Route existing = current.get(name);
+            // an app's URL is always the runner's URL with the app name as the path, so only the runners can differ
+            if (existing == null || existing.replicaOn(authority) == null) {
+                changed.add(Route.create(name, runner.url.resolve("/" + name)));
+            }
+        }
+        Set<String> removed = new HashSet<>();
+        for (String name : current.appsOn(authority)) {
+            if (!names.contains(name)) {
+                removed.add(name);
             }
         }
-        return info;
+        if (changed.isEmpty() && removed.isEmpty()) {
+            log.debug("No route changes for " + runner.id);
+            return;
+        }
+        proxyMap.update(routes -> {
+            for (Route route : changed) {
+                routes.put(route);
+            }
+            routes.removeFromRunner(authority, removed::contains);
+        });
     }
 
+    @Override
+    public CompletableFuture<Optional<Route>> lookupApp(URI forwardedHost, String appName, List<Runner> allRunners) {
+        CompletableFuture<Optional<Route>> mine = new CompletableFuture<>();
+        CompletableFuture<Optional<Route>> inProgress = lookups.putIfAbsent(appName, mine);
+        if (inProgress != null) {
+            return inProgress;
+        }
+        mine.whenComplete((route, error) -> lookups.remove(appName, mine));
+        List<Runner> runners = new ArrayList<>(allRunners.size());
+        for (Runner runner : allRunners) {
+            if (runner.circuitBreaker().isClosed()) {
+                runners.add(runner);
+            }
+        }
+        int down = allRunners.size() - runners.size();
+        List<URI> uris = new ArrayList<>(runners.size());
+        try {
+            for (Runner runner : runners) {
+                uris.add(runner.url.resolve("/api/v1/apps/" + appName));
+            }
+        } catch (IllegalArgumentException e) {
+            mine.complete(Optional.empty()); // not a name any runner could have
+            return mine;
+        }
+        if (runners.isEmpty()) {
+            notFound(mine, appName, down);
+            return mine;
+        }
+        log.info("Asking " + runners.size() + " runners whether they have " + appName);
+        AtomicInteger remaining = new AtomicInteger(runners.size());
+        for (int i = 0; i < runners.size(); i++) {
+            Runner runner = runners.get(i);
+            httpClient.newRequest(uris.get(i))
+                .method(HttpMethod.GET)
+                .header(HttpHeader.HOST, forwardedHost.getAuthority())
+                .timeout(LOOKUP_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .send(result -> {
+                    // every runner that has the app becomes a replica, and the first to answer lets the requests go
+                    if (!result.isFailed() && result.getResponse().getStatus() == 200) {
+                        Route replica = Route.create(appName, runner.url.resolve("/" + appName));
+                        RouteTable table = proxyMap.update(routes -> routes.put(replica));
+                        mine.complete(Optional.of(table.get(appName)));
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        notFound(mine, appName, down);
+                    }
+                });
+        }
+        return mine;
+    }
+
+    /**
+     * An app that was not found can only be said to not exist if every runner was asked
+     */
+    private static void notFound(CompletableFuture<Optional<Route>> lookup, String appName, int runnersDown) {
+        if (runnersDown == 0) {
+            lookup.complete(Optional.empty());
+        } else {
+            lookup.completeExceptionally(new AppRunnerException(appName + " was not found, but "
+                + runnersDown + " runners that seem to be down were not asked"));
+        }
+    }
+
+    @Override
+    public AppEventsOutcome applyEvents(URI forwardedHost, Runner runner, List<AppEvent> events) {
+        String authority = runner.url.getAuthority();
+        EventSequence sequence = eventSequences.computeIfAbsent(authority, key -> new EventSequence());
+        List<AppEvent> toApply = new ArrayList<>();
+        boolean missedSome = false;
+        synchronized (sequence) {
+            long last = sequence.last;
+            for (AppEvent event : events) {
+                if (last != EventSequence.NONE && event.sequence == last) {
+                    log.debug("Ignoring already seen event " + event + " from " + runner.id);
+                } else {
+                    if (last != EventSequence.NONE && event.sequence < last) {
+                        // the runner has started numbering again, so anything could have changed while it restarted
+                        log.info("Events from " + runner.id + " went back from " + last + " to " + event.sequence + " so assuming it restarted");
+                        missedSome = true;
+                    } else if (last != EventSequence.NONE && event.sequence > last + 1) {
+                        log.warn("Missed events " + (last + 1) + " to " + (event.sequence - 1) + " from " + runner.id);
+                        missedSome = true;
+                    }
+                    last = event.sequence;
+                    toApply.add(event);
+                }
+            }
+            // the routes are worked out before anything changes, so that a bad event leaves the sequence where it was
+            // and the whole batch can be sent again
+            List<Route> created = new ArrayList<>();
+            for (AppEvent event : toApply) {
+                if (event.type == AppEvent.Type.CREATED) {
+                    created.add(Route.create(event.appName, runner.url.resolve("/" + event.appName)));
+                }
+            }
+            if (!toApply.isEmpty()) {
+                Iterator<Route> routesToAdd = created.iterator();
+                proxyMap.update(routes -> {
+                    for (AppEvent event : toApply) {
+                        if (event.type == AppEvent.Type.CREATED) {
+                            routes.put(routesToAdd.next());
+                        } else {
+                            routes.removeFromRunner(authority, event.appName::equals);
+                        }
+                    }
+                });
+            }
+            sequence.last = last;
+        }
+        if (missedSome) {
+            loadRunnerAsync(forwardedHost, runner).whenComplete((apps, error) -> {
+                if (error != null) {
+                    log.warn("Could not resync " + runner.id + " after missing events or a restart: " + error.getMessage());
+                }
+            });
+        }
+        return new AppEventsOutcome(toApply.size(), events.size() - toApply.size(), missedSome);
+    }
 
     @Override
     public void removeRunner(Runner runner) {
-        for (Map.Entry<String, URI> entry : proxyMap.getAll().entrySet()) {
-            if (entry.getValue().getAuthority().equals(runner.url.getAuthority())) {
-                proxyMap.remove(entry.getKey());
+        // if the runner is added again, its routes must be loaded in full
+        lastResponses.remove(runner.url.getAuthority());
+        eventSequences.remove(runner.url.getAuthority());
+        proxyMap.update(routes -> routes.removeRunner(runner.url.getAuthority()));
+    }
+
+    private static class EventSequence {
+        static final long NONE = -1;
+        long last = NONE;
+    }
+
+    private static class LastResponse {
+        final String etag;
+        final String lastModified;
+        final RunnerApps apps;
+
+        private LastResponse(String etag, String lastModified, RunnerApps apps) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.apps = apps;
+        }
+    }
+
+    /**
+     * The last response of one runner for the router's own polling, which has no host, and for the latest client
+     * host. Each one holds the whole parsed body, which is needed to answer for a host the runner says has not
+     * changed, so no other hosts are remembered. The router's own entry is kept whatever hosts clients use, so
+     * that background polling keeps getting 304s.
+     */
+    private static class LastResponses {
+        private LastResponse router;
+        private String clientHost;
+        private LastResponse client;
+
+        synchronized LastResponse get(String host) {
+            if (host == null) {
+                return router;
+            }
+            return host.equals(clientHost) ? client : null;
+        }
+
+        synchronized void put(String host, LastResponse response) {
+            if (host == null) {
+                router = response;
+            } else {
+                clientHost = host;
+                client = response;
             }
         }
     }
@@ -0,0 +1,143 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An adaptive limit on the number of requests a runner is sent at once, in the style of TCP Vegas.
+ * <p>
+ * A runner hosts many apps with very different latencies, so rather than comparing each response to the lowest
+ * latency seen (which would be the fastest app's, making every slower app look like queueing), a short-term
+ * average of recent latencies is compared to a long-term one. While the recent latency is in line with the
+ * long-term average the limit grows by one, and when it is well above it requests are queueing on the runner
+ * and the limit shrinks by one. Failures to get a response cut the limit by a tenth. The long-term average
+ * slowly follows the runner if it gets slower for good.
+ * <p>
+ * Latency samples that arrive while another is being applied are skipped rather than waited for, so the
+ * proxy threads never block on this.
+ */
+public class ConcurrencyLimit {
+    /** Roughly the last 10 responses */
+    private static final double SHORT_TERM_WEIGHT = 0.1;
+    /** Roughly the last 500 responses */
+    private static final double LONG_TERM_WEIGHT = 0.002;
+    /** How much slower than the long-term average recent responses can be before the limit goes down */
+    private static final double TOLERANCE = 1.5;
+    private static final double BACKOFF = 0.9;
+
+    private final int max;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicBoolean updating = new AtomicBoolean();
+    private volatile int limit;
+    private volatile double shortTermNanos;
+    private volatile double longTermNanos;
+
+    public ConcurrencyLimit(RunnerLimits limits) {
+        this.max = limits.maxConcurrency;
+        this.limit = limits.initialConcurrency;
+    }
+
+    public boolean isEnabled() {
+        return max > 0;
+    }
+
+    /**
+     * @return True if the request can be sent, in which case {@link #release()} must be called once it is done
+     */
+    public boolean tryAcquire() {
+        if (!isEnabled()) {
+            return true;
+        }
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        if (isEnabled()) {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * @param latencyNanos How long the runner took to start responding to a request
+     */
+    public void onResponse(long latencyNanos) {
+        if (!isEnabled() || latencyNanos <= 0 || !updating.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            double shortTerm = average(shortTermNanos, latencyNanos, SHORT_TERM_WEIGHT);
+            double longTerm = average(longTermNanos, latencyNanos, LONG_TERM_WEIGHT);
+            shortTermNanos = shortTerm;
+            longTermNanos = longTerm;
+            int current = limit;
+            if (shortTerm > longTerm * TOLERANCE) {
+                limit = Math.max(1, current - 1);
+            } else if (inFlight.get() * 2 >= current) {
+                // only grow if the limit is actually being used, or it would grow forever while idle
+                limit = Math.min(max, current + 1);
+            }
+        } finally {
+            updating.set(false);
+        }
+    }
+
+    private static double average(double current, long sample, double weight) {
+        return current == 0 ? sample : current + weight * (sample - current);
+    }
+
+    /**
+     * Called when a request failed without the runner responding at all
+     */
+    public void onFailure() {
+        if (!isEnabled() || !updating.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            limit = Math.max(1, (int) (limit * BACKOFF));
+        } finally {
+            updating.set(false);
+        }
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return The number of requests turned away because the runner was at its limit
+     */
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    public JSONObject toJSON() {
+        JSONObject json = new JSONObject().put("enabled", isEnabled());
+        if (isEnabled()) {
+            json.put("limit", limit)
+                .put("maxLimit", max)
+                .put("inFlight", inFlight())
+                .put("rejected", rejected())
+                .put("latencyMillis", TimeUnit.NANOSECONDS.toMillis((long) shortTermNanos))
+                .put("baselineLatencyMillis", TimeUnit.NANOSECONDS.toMillis((long) longTermNanos));
+        }
+        return json;
+    }
+}
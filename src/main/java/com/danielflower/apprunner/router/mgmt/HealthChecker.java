@@ -0,0 +1,108 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically asks each runner for <code>/api/v1/system</code> and feeds the result into the runner's
+ * {@link CircuitBreaker}: a runner that does not answer with a 200 in time has its circuit opened straight
+ * away, and one that does has it closed again. This finds dead runners even when nothing is being proxied
+ * to them, and brings them back without waiting for a proxied request to be let through as a trial.
+ * <p>
+ * A runner that has not answered the previous check is not checked again until it does or times out.
+ */
+public class HealthChecker implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(HealthChecker.class);
+
+    private final Cluster cluster;
+    private final HttpClient httpClient;
+    private final long intervalMillis;
+    private final long timeoutMillis;
+    private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "runner-health-checker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public HealthChecker(Cluster cluster, HttpClient httpClient, long intervalMillis, long timeoutMillis) {
+        this.cluster = cluster;
+        this.httpClient = httpClient;
+        this.intervalMillis = intervalMillis;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public static HealthChecker create(Cluster cluster, long intervalMillis, long timeoutMillis) {
+        HttpClient httpClient = new HttpClient(new SslContextFactory(true));
+        try {
+            httpClient.start();
+        } catch (Exception e) {
+            throw new RuntimeException("Could not start http client", e);
+        }
+        return new HealthChecker(cluster, httpClient, intervalMillis, timeoutMillis);
+    }
+
+    /**
+     * Starts checking in the background. An interval of zero or less means runners are only marked as down
+     * by their circuit breakers when proxied requests to them fail.
+     */
+    public void start() {
+        if (intervalMillis <= 0) {
+            log.info("Runner health checks are off");
+            return;
+        }
+        log.info("Checking the health of runners every " + intervalMillis + "ms");
+        scheduler.scheduleWithFixedDelay(this::checkAll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void checkAll() {
+        for (Runner runner : cluster.getRunners()) {
+            check(runner);
+        }
+    }
+
+    void check(Runner runner) {
+        if (!inProgress.add(runner.id)) {
+            return;
+        }
+        try {
+            httpClient.newRequest(runner.url.resolve("/api/v1/system"))
+                .timeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                .send(result -> {
+                    inProgress.remove(runner.id);
+                    if (result.isSucceeded() && result.getResponse().getStatus() == 200) {
+                        if (runner.circuitBreaker().onSuccess()) {
+                            log.info(runner.id + " passed its health check so requests will be sent to it again");
+                        }
+                    } else {
+                        String reason = result.isSucceeded()
+                            ? "Health check returned " + result.getResponse().getStatus()
+                            : "Health check failed: " + result.getFailure().getMessage();
+                        if (runner.circuitBreaker().onHealthCheckFailure(reason)) {
+                            log.warn(runner.id + " is being treated as down. " + reason);
+                        }
+                    }
+                });
+        } catch (Exception e) {
+            inProgress.remove(runner.id);
+            log.warn("Could not check the health of " + runner.id, e);
+        }
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            httpClient.stop();
+        } catch (Exception e) {
+            log.info("Error while stopping the health check client", e);
+        }
+    }
+}
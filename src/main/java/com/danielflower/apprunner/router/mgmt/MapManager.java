@@ -1,16 +1,43 @@
 package com.danielflower.apprunner.router.mgmt;
 
-import org.json.JSONObject;
+import com.danielflower.apprunner.router.web.Route;
 
 import java.net.URI;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 
 public interface MapManager {
-    List<JSONObject> loadAllApps(URI forwardedHost, List<Runner> runners) throws InterruptedException, TimeoutException, ExecutionException;
+    List<RunnerApps> loadAllApps(URI forwardedHost, List<Runner> runners) throws InterruptedException, TimeoutException, ExecutionException;
 
-    JSONObject loadRunner(URI forwardedHost, Runner runner) throws Exception;
+    /**
+     * Queries every runner, giving each one until the timeout to answer. Unlike {@link #loadAllApps(URI, List)} this
+     * never fails because of a single runner: runners that fail or are too slow are reported in the result instead.
+     */
+    ClusterApps loadAvailableApps(URI forwardedHost, List<Runner> runners, long timeoutMillis) throws InterruptedException;
+
+    RunnerApps loadRunner(URI forwardedHost, Runner runner) throws Exception;
+
+    /**
+     * Loads the apps of a runner and updates the routes to it without blocking the calling thread.
+     */
+    CompletableFuture<RunnerApps> loadRunnerAsync(URI forwardedHost, Runner runner);
+
+    /**
+     * Asks the runners whether any of them has an app that is not in the routes yet, adding the route if one
+     * does. Concurrent lookups of the same name share a single query of the runners. Runners that seem to be
+     * down are not asked, and if any were skipped and none of the others has the app, the lookup fails rather
+     * than saying the app does not exist.
+     */
+    CompletableFuture<Optional<Route>> lookupApp(URI forwardedHost, String appName, List<Runner> runners);
+
+    /**
+     * Applies app changes pushed by a runner to the routes straight away. Events that have been seen before are
+     * ignored, and if any events were missed then the runner's apps are reloaded in full in the background.
+     */
+    AppEventsOutcome applyEvents(URI forwardedHost, Runner runner, List<AppEvent> events);
 
     void removeRunner(Runner runner);
 }
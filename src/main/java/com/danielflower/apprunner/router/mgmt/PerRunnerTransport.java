@@ -0,0 +1,60 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import org.eclipse.jetty.client.DuplexConnectionPool;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpDestination;
+import org.eclipse.jetty.client.HttpExchange;
+import org.eclipse.jetty.client.Origin;
+import org.eclipse.jetty.client.http.HttpClientTransportOverHTTP;
+import org.eclipse.jetty.client.http.HttpDestinationOverHTTP;
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+
+import java.util.Queue;
+import java.util.function.Function;
+
+/**
+ * An HTTP transport where the connection pool and request queue of each runner are sized by that runner's
+ * {@link RunnerLimits} rather than by one setting for the whole client. The HTTP client already keeps a separate
+ * pool and queue for each host and port, so a runner that stops responding fills up only its own, and requests
+ * to it beyond that are rejected straight away without holding anything that other runners need.
+ * <p>
+ * The limits are read when the first request is made to a runner.
+ */
+public class PerRunnerTransport extends HttpClientTransportOverHTTP {
+    private final Function<String, RunnerLimits> limitsByAuthority;
+
+    /**
+     * @param limitsByAuthority The limits for a runner, given the host and port (or just the host, when it is on
+     *                          the default port) of its URL
+     */
+    public PerRunnerTransport(Function<String, RunnerLimits> limitsByAuthority) {
+        this.limitsByAuthority = limitsByAuthority;
+    }
+
+    /**
+     * @return A client (not yet started) that talks to runners with their own limits
+     */
+    public static HttpClient newHttpClient(Function<String, RunnerLimits> limitsByAuthority, SslContextFactory sslContextFactory) {
+        return new HttpClient(new PerRunnerTransport(limitsByAuthority), sslContextFactory);
+    }
+
+    @Override
+    public HttpDestination newHttpDestination(Origin origin) {
+        Origin.Address address = origin.getAddress();
+        String authority = getHttpClient().isDefaultPort(origin.getScheme(), address.getPort())
+            ? address.getHost() : address.asString();
+        RunnerLimits limits = limitsByAuthority.apply(authority);
+        return new HttpDestinationOverHTTP(getHttpClient(), origin) {
+            @Override
+            protected DuplexConnectionPool newConnectionPool(HttpClient client) {
+                return new DuplexConnectionPool(this, limits.maxConnections, this);
+            }
+
+            @Override
+            protected Queue<HttpExchange> newExchangeQueue(HttpClient client) {
+                return new BlockingArrayQueue<>(limits.maxQueuedRequests);
+            }
+        };
+    }
+}
@@ -0,0 +1,87 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically asks each runner for its apps so that apps created or deleted directly on a runner become
+ * routable (or stop being routable) without waiting for someone to list all the apps.
+ * <p>
+ * Each round, every runner is queried after its own random delay of up to the jitter, so that the runners
+ * are not all hit at the same moment. A runner that has not answered the previous round is skipped.
+ */
+public class Reconciler implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(Reconciler.class);
+    private static final URI ROUTER_HOST = URI.create("/");
+
+    private final Cluster cluster;
+    private final MapManager mapManager;
+    private final long intervalMillis;
+    private final long jitterMillis;
+    private final Set<String> inProgress = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "route-reconciler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public Reconciler(Cluster cluster, MapManager mapManager, long intervalMillis, long jitterMillis) {
+        this.cluster = cluster;
+        this.mapManager = mapManager;
+        this.intervalMillis = intervalMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    /**
+     * Starts reconciling in the background. An interval of zero or less means the routes are only
+     * loaded on startup, when runners are added, and when the apps are listed.
+     */
+    public void start() {
+        if (intervalMillis <= 0) {
+            log.info("Background route reconciliation is off");
+            return;
+        }
+        log.info("Reconciling routes every " + intervalMillis + "ms with up to " + jitterMillis + "ms jitter per runner");
+        scheduler.scheduleWithFixedDelay(this::reconcileAll, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void reconcileAll() {
+        for (Runner runner : cluster.getRunners()) {
+            long delay = jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis) : 0;
+            scheduler.schedule(() -> reconcile(runner), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void reconcile(Runner runner) {
+        if (!cluster.runner(runner.id).isPresent()) {
+            return; // deleted since this round started
+        }
+        if (!inProgress.add(runner.id)) {
+            log.debug("Skipping " + runner.id + " as it has not answered the previous reconciliation yet");
+            return;
+        }
+        try {
+            mapManager.loadRunnerAsync(ROUTER_HOST, runner).whenComplete((apps, error) -> {
+                inProgress.remove(runner.id);
+                if (error != null) {
+                    log.warn("Could not reconcile the routes of " + runner.id + ": " + error.getMessage());
+                }
+            });
+        } catch (Exception e) {
+            inProgress.remove(runner.id);
+            log.warn("Could not reconcile the routes of " + runner.id, e);
+        }
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
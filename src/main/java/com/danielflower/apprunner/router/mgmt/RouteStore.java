@@ -0,0 +1,157 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import com.danielflower.apprunner.router.web.ProxyMap;
+import com.danielflower.apprunner.router.web.Route;
+import com.danielflower.apprunner.router.web.RouteTable;
+import com.danielflower.apprunner.router.web.Upstream;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a copy of the routes on disk so that after a restart the router can serve requests straight away using
+ * the routes it last knew about, rather than waiting for every runner to answer first.
+ * <p>
+ * The file is rewritten in the background whenever the routes have changed, and once more on close. Each app
+ * maps to its URL, or to an array of URLs if it has more than one replica.
+ */
+public class RouteStore implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(RouteStore.class);
+    // app names are the keys, and there are far too many of them to be worth interning
+    private static final JsonFactory JSON = new JsonFactory()
+        .disable(JsonFactory.Feature.INTERN_FIELD_NAMES)
+        .disable(JsonFactory.Feature.CANONICALIZE_FIELD_NAMES);
+
+    private final File file;
+    private final ProxyMap proxyMap;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "route-store");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long savedVersion = -1;
+
+    public RouteStore(File file, ProxyMap proxyMap) {
+        this.file = file;
+        this.proxyMap = proxyMap;
+    }
+
+    /**
+     * Adds the saved routes to the proxy map, apart from any to runners that are no longer in the cluster.
+     * @return The number of routes loaded, or -1 if there was no usable saved copy
+     */
+    public synchronized int load(List<Runner> runners) {
+        if (!file.isFile()) {
+            return -1;
+        }
+        Set<String> authorities = new HashSet<>();
+        for (Runner runner : runners) {
+            authorities.add(runner.url.getAuthority());
+        }
+        List<Route> saved = new ArrayList<>();
+        try (JsonParser parser = JSON.createParser(file)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.START_OBJECT && "routes".equals(field)) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String appName = parser.getCurrentName();
+                        if (parser.nextToken() == JsonToken.START_ARRAY) {
+                            while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                                saved.add(Route.create(appName, URI.create(parser.getText())));
+                            }
+                        } else {
+                            saved.add(Route.create(appName, URI.create(parser.getText())));
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Ignoring the saved routes at " + file.getAbsolutePath() + " as they could not be read: " + e.getMessage());
+            return -1;
+        }
+        List<Route> usable = new ArrayList<>(saved.size());
+        for (Route route : saved) {
+            if (authorities.contains(route.primary().runnerAuthority)) {
+                usable.add(route);
+            }
+        }
+        RouteTable table = proxyMap.update(routes -> {
+            for (Route route : usable) {
+                routes.put(route);
+            }
+        });
+        savedVersion = table.version();
+        log.info("Loaded " + usable.size() + " saved routes from " + file.getAbsolutePath()
+            + (usable.size() < saved.size() ? " (skipping " + (saved.size() - usable.size()) + " to runners no longer in the cluster)" : ""));
+        return usable.size();
+    }
+
+    /**
+     * Writes the routes to disk if they have changed since they were last saved or loaded
+     */
+    public synchronized void save() throws IOException {
+        RouteTable table = proxyMap.snapshot();
+        if (table.version() == savedVersion) {
+            return;
+        }
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (JsonGenerator generator = JSON.createGenerator(temp, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeNumberField("version", table.version());
+            generator.writeObjectFieldStart("routes");
+            for (Route route : table.all().values()) {
+                if (route.replicas.size() == 1) {
+                    generator.writeStringField(route.appName, route.primary().url.toString());
+                } else {
+                    generator.writeArrayFieldStart(route.appName);
+                    for (Upstream replica : route.replicas) {
+                        generator.writeString(replica.url.toString());
+                    }
+                    generator.writeEndArray();
+                }
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        savedVersion = table.version();
+        log.debug("Saved version " + table.version() + " of the routes to " + file.getAbsolutePath());
+    }
+
+    public void start(long intervalMillis) {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                save();
+            } catch (Exception e) {
+                log.warn("Could not save the routes to " + file.getAbsolutePath(), e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        save();
+    }
+}
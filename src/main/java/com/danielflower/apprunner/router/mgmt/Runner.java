@@ -3,18 +3,56 @@ package com.danielflower.apprunner.router.mgmt;
 import org.json.JSONObject;
 
 import java.net.URI;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
 
 public class Runner {
+    private static final long RESERVATION_STAMP = 1L << 32;
+    private static final long RESERVATION_COUNT_MASK = RESERVATION_STAMP - 1;
+
     public final String id;
     public final URI url;
     public final int maxApps;
-    public AtomicInteger numberOfApps = new AtomicInteger(0);
+
+    /**
+     * The number of app creations that have been sent to this runner but not yet finished, in the low 32 bits,
+     * and a stamp that changes on every reservation and release in the high 32 bits so that a reservation
+     * can't succeed based on an app count read before another creation completed.
+     */
+    private final AtomicLong reservations = new AtomicLong();
+
+    /**
+     * The number of proxied requests that have been sent to this runner and not yet finished. This is updated on
+     * every request from many threads, so it is striped rather than a single contended counter.
+     */
+    private final LongAdder inFlight = new LongAdder();
+    private final RunnerLimits limits;
+    private final ConcurrencyLimit concurrencyLimit;
+    private final CircuitBreaker circuitBreaker;
+
+    /**
+     * The limits set for just this runner in <code>cluster.json</code>, which are saved back as they were rather
+     * than as the effective limits so that changing the defaults still applies to this runner.
+     */
+    private final JSONObject limitOverrides;
 
     public Runner(String id, URI url, int maxApps) {
+        this(id, url, maxApps, RunnerLimits.DEFAULT);
+    }
+
+    public Runner(String id, URI url, int maxApps, RunnerLimits limits) {
+        this(id, url, maxApps, limits, null);
+    }
+
+    private Runner(String id, URI url, int maxApps, RunnerLimits limits, JSONObject limitOverrides) {
         this.id = id;
         this.url = url;
         this.maxApps = maxApps;
+        this.limits = limits;
+        this.limitOverrides = limitOverrides;
+        this.concurrencyLimit = new ConcurrencyLimit(limits);
+        this.circuitBreaker = new CircuitBreaker(limits);
     }
 
     @Override
@@ -48,14 +86,105 @@ public class Runner {
         vals.put("id", id);
         vals.put("url", url.toString());
         vals.put("maxApps", maxApps);
+        if (limitOverrides != null) {
+            vals.put("limits", limitOverrides);
+        }
         return vals;
     }
 
+    /**
+     * @return The saved details of the runner along with how busy it currently is
+     */
+    public JSONObject toStatusJSON() {
+        return toJSON()
+            .put("limits", limits.toJSON())
+            .put("inFlightRequests", inFlightRequests())
+            .put("concurrency", concurrencyLimit.toJSON())
+            .put("circuit", circuitBreaker.toJSON());
+    }
+
     public static Runner fromJSON(JSONObject o) {
-        return new Runner((String) o.get("id"), URI.create((String) o.get("url")), (int) o.get("maxApps"));
+        return fromJSON(o, RunnerLimits.DEFAULT);
+    }
+
+    /**
+     * @param defaults The limits to use for anything not set in the runner's own <code>limits</code> object
+     */
+    public static Runner fromJSON(JSONObject o, RunnerLimits defaults) {
+        JSONObject overrides = o.optJSONObject("limits");
+        RunnerLimits limits = overrides == null ? defaults : defaults.withOverrides(overrides);
+        return new Runner((String) o.get("id"), URI.create((String) o.get("url")), (int) o.get("maxApps"), limits, overrides);
+    }
+
+    /**
+     * @param hostedApps The number of apps currently routed to this runner
+     * @return The number of apps that are on this runner, or will be once pending creations finish
+     */
+    public int appsIncludingReservations(int hostedApps) {
+        return hostedApps + (int) (reservations.get() & RESERVATION_COUNT_MASK);
+    }
+
+    /**
+     * Reserves a slot for a new app if there is capacity. Every successful reservation must be followed by
+     * exactly one call to {@link #releaseReservation()}, after the created app has been added to the route table.
+     * @param hostedApps Supplies the number of apps currently routed to this runner
+     * @return True if there was capacity and a slot is now reserved
+     */
+    public boolean tryReserve(IntSupplier hostedApps) {
+        while (true) {
+            long current = reservations.get();
+            int pending = (int) (current & RESERVATION_COUNT_MASK);
+            if (hostedApps.getAsInt() + pending >= maxApps) {
+                return false;
+            }
+            if (reservations.compareAndSet(current, current + RESERVATION_STAMP + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public RunnerLimits limits() {
+        return limits;
+    }
+
+    /**
+     * @return The limit on how many proxied requests this runner is sent at once
+     */
+    public ConcurrencyLimit concurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    /**
+     * @return Whether the runner seems to be up, from health checks and from how proxied requests have gone
+     */
+    public CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void requestStarted() {
+        inFlight.increment();
+    }
+
+    public void requestFinished() {
+        inFlight.decrement();
+    }
+
+    /**
+     * @return The number of proxied requests currently waiting on this runner
+     */
+    public long inFlightRequests() {
+        return inFlight.sum();
     }
 
-    public boolean hasCapacity() {
-        return numberOfApps.get() < maxApps;
+    public void releaseReservation() {
+        while (true) {
+            long current = reservations.get();
+            if ((current & RESERVATION_COUNT_MASK) == 0) {
+                return;
+            }
+            if (reservations.compareAndSet(current, current + RESERVATION_STAMP - 1)) {
+                return;
+            }
+        }
     }
 }
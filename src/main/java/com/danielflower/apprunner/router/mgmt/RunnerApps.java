@@ -0,0 +1,176 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import com.danielflower.apprunner.router.problems.AppRunnerException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The response of a runner's <code>GET /api/v1/apps</code> call, kept as the bytes it was sent as.
+ * <p>
+ * The body is scanned once with a streaming parser to find where each app's JSON object starts and ends, and
+ * the apps are sorted by name. Apps are written out by copying their slice of the original body, so nothing
+ * is ever built up as a tree.
+ */
+public final class RunnerApps {
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final Comparator<App> BY_NAME = (a, b) -> a.name.compareTo(b.name);
+
+    private final byte[] body;
+    private final List<App> apps;
+
+    private RunnerApps(byte[] body, List<App> apps) {
+        this.body = body;
+        this.apps = apps;
+    }
+
+    public static RunnerApps parse(byte[] body) {
+        List<App> apps = new ArrayList<>();
+        try (JsonParser parser = JSON.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new AppRunnerException("Expected a JSON object but got " + parser.getCurrentToken());
+            }
+            boolean foundApps = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("apps".equals(field) && value == JsonToken.START_ARRAY) {
+                    foundApps = true;
+                    readApps(body, parser, apps);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (!foundApps) {
+                throw new AppRunnerException("The response had no apps array");
+            }
+        } catch (IOException e) {
+            throw new AppRunnerException("Could not parse the apps response: " + e.getMessage(), e);
+        }
+        apps.sort(BY_NAME);
+        return new RunnerApps(body, apps);
+    }
+
+    private static void readApps(byte[] body, JsonParser parser, List<App> apps) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+            int start = skipTo(body, '{', parser.getTokenLocation().getByteOffset());
+            String name = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("name".equals(field) && value == JsonToken.VALUE_STRING) {
+                    name = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            int end = skipTo(body, '}', parser.getTokenLocation().getByteOffset()) + 1;
+            if (name == null) {
+                throw new AppRunnerException("An app in the response had no name");
+            }
+            apps.add(new App(name, start, end));
+        }
+        if (token != JsonToken.END_ARRAY) {
+            throw new AppRunnerException("Expected an app object but got " + token);
+        }
+    }
+
+    /**
+     * The parser can report a token as starting where the separator or whitespace before it started, so the
+     * position is moved forward to the bracket itself.
+     */
+    private static int skipTo(byte[] body, char bracket, long from) {
+        int i = (int) from;
+        while (body[i] != bracket) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return The raw response, as it was received from the runner
+     */
+    public byte[] body() {
+        return body;
+    }
+
+    public int size() {
+        return apps.size();
+    }
+
+    /**
+     * @return The name of the app at the given position, in name order
+     */
+    public String name(int index) {
+        return apps.get(index).name;
+    }
+
+    /**
+     * @return The position of the first app whose name is not before the given name, or {@link #size()} if
+     * there is none
+     */
+    public int firstIndexFrom(String name) {
+        int low = 0;
+        int high = apps.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (apps.get(mid).name.compareTo(name) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Writes the JSON object of the app at the given position exactly as the runner sent it
+     */
+    public void writeApp(int index, OutputStream out) throws IOException {
+        App app = apps.get(index);
+        out.write(body, app.start, app.end - app.start);
+    }
+
+    /**
+     * Writes a JSON object holding only the given top level properties of the app at the given position
+     */
+    public void writeFields(int index, Set<String> fields, JsonGenerator generator) throws IOException {
+        App app = apps.get(index);
+        try (JsonParser parser = JSON.createParser(body, app.start, app.end - app.start)) {
+            parser.nextToken();
+            generator.writeStartObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (fields.contains(field)) {
+                    generator.writeFieldName(field);
+                    generator.copyCurrentStructure(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    private static class App {
+        final String name;
+        final int start;
+        final int end;
+
+        private App(String name, int start, int end) {
+            this.name = name;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
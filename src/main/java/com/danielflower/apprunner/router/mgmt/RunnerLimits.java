@@ -0,0 +1,99 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import org.json.JSONObject;
+
+/**
+ * How much traffic the router lets through to each runner.
+ */
+public final class RunnerLimits {
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+    public static final int DEFAULT_MAX_QUEUED_REQUESTS = 1024;
+    public static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_CIRCUIT_OPEN_MILLIS = 10000;
+
+    /** No concurrency limit, the connection pool sizes the HTTP client uses by default, and the default circuit breaker */
+    public static final RunnerLimits DEFAULT = new RunnerLimits(0, 20);
+
+    /**
+     * The most requests the adaptive concurrency limit can grow to, or 0 to not limit concurrency.
+     */
+    public final int maxConcurrency;
+
+    /**
+     * The concurrency limit a runner starts with, before any latencies have been seen.
+     */
+    public final int initialConcurrency;
+
+    /**
+     * The most connections the router opens to the runner. Each runner has its own pool, so a runner that is
+     * slow to respond can use up only its own connections.
+     */
+    public final int maxConnections;
+
+    /**
+     * The most requests that can wait for one of the runner's connections to be free. Requests beyond this are
+     * turned away rather than queued.
+     */
+    public final int maxQueuedRequests;
+
+    /**
+     * How many requests in a row can fail to get any response before the runner's circuit opens, or 0 to never
+     * open it.
+     */
+    public final int circuitFailureThreshold;
+
+    /**
+     * How long an open circuit turns requests away before letting one through to see if the runner has recovered.
+     */
+    public final long circuitOpenMillis;
+
+    public RunnerLimits(int maxConcurrency, int initialConcurrency) {
+        this(maxConcurrency, initialConcurrency, DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_QUEUED_REQUESTS);
+    }
+
+    public RunnerLimits(int maxConcurrency, int initialConcurrency, int maxConnections, int maxQueuedRequests) {
+        this(maxConcurrency, initialConcurrency, maxConnections, maxQueuedRequests, DEFAULT_CIRCUIT_FAILURE_THRESHOLD, DEFAULT_CIRCUIT_OPEN_MILLIS);
+    }
+
+    public RunnerLimits(int maxConcurrency, int initialConcurrency, int maxConnections, int maxQueuedRequests, int circuitFailureThreshold, long circuitOpenMillis) {
+        this.maxConcurrency = maxConcurrency;
+        this.initialConcurrency = Math.max(1, Math.min(initialConcurrency, maxConcurrency > 0 ? maxConcurrency : initialConcurrency));
+        this.maxConnections = Math.max(1, maxConnections);
+        this.maxQueuedRequests = Math.max(1, maxQueuedRequests);
+        this.circuitFailureThreshold = Math.max(0, circuitFailureThreshold);
+        this.circuitOpenMillis = Math.max(0, circuitOpenMillis);
+    }
+
+    /**
+     * @param overrides Any of <code>maxConcurrency</code>, <code>initialConcurrency</code>, <code>maxConnections</code>,
+     *                  <code>maxQueuedRequests</code>, <code>circuitFailureThreshold</code> and
+     *                  <code>circuitOpenMillis</code>, such as from a runner in <code>cluster.json</code>
+     * @return These limits with the given values replaced
+     */
+    public RunnerLimits withOverrides(JSONObject overrides) {
+        return new RunnerLimits(
+            overrides.optInt("maxConcurrency", maxConcurrency),
+            overrides.optInt("initialConcurrency", initialConcurrency),
+            overrides.optInt("maxConnections", maxConnections),
+            overrides.optInt("maxQueuedRequests", maxQueuedRequests),
+            overrides.optInt("circuitFailureThreshold", circuitFailureThreshold),
+            overrides.optLong("circuitOpenMillis", circuitOpenMillis));
+    }
+
+    public JSONObject toJSON() {
+        return new JSONObject()
+            .put("maxConcurrency", maxConcurrency)
+            .put("initialConcurrency", initialConcurrency)
+            .put("maxConnections", maxConnections)
+            .put("maxQueuedRequests", maxQueuedRequests)
+            .put("circuitFailureThreshold", circuitFailureThreshold)
+            .put("circuitOpenMillis", circuitOpenMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "RunnerLimits{maxConcurrency=" + maxConcurrency + ", initialConcurrency=" + initialConcurrency
+            + ", maxConnections=" + maxConnections + ", maxQueuedRequests=" + maxQueuedRequests
+            + ", circuitFailureThreshold=" + circuitFailureThreshold + ", circuitOpenMillis=" + circuitOpenMillis + '}';
+    }
+}
@@ -1,7 +1,13 @@
 package com.danielflower.apprunner.router.web;
 
 import com.danielflower.apprunner.router.mgmt.Cluster;
+import com.danielflower.apprunner.router.mgmt.ClusterApps;
 import com.danielflower.apprunner.router.mgmt.MapManager;
+import com.danielflower.apprunner.router.mgmt.Runner;
+import com.danielflower.apprunner.router.mgmt.RunnerApps;
+import com.danielflower.apprunner.router.problems.AppRunnerException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.json.JSONArray;
@@ -13,46 +19,90 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
-class AppsCallAggregator extends AbstractHandler {
+public class AppsCallAggregator extends AbstractHandler {
     private static final Logger log = LoggerFactory.getLogger(AppsCallAggregator.class);
+    private static final JsonFactory JSON = new JsonFactory();
+    public static final String PARTIAL_HEADER = "X-AppRunner-Partial";
+
     private final MapManager mapManager;
     private final Cluster cluster;
+    private final ProxyMap proxyMap;
+    private final boolean partialResults;
+    private final long runnerTimeoutMillis;
+    private final long cacheTtlNanos;
+    private final Map<String, AppsResponse> cache = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<AppsResponse>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
 
-    public AppsCallAggregator(MapManager mapManager, Cluster cluster) {
+    /**
+     * @param partialResults If true, runners that fail or take longer than <code>runnerTimeoutMillis</code> are
+     *                       listed in a <code>degraded</code> section rather than failing the whole request
+     * @param runnerTimeoutMillis How long to wait for runners when returning partial results
+     * @param cacheTtlMillis How long a complete response can be served without asking the runners again, as long
+     *                       as the route table has not changed. Zero turns caching off.
+     */
+    public AppsCallAggregator(MapManager mapManager, Cluster cluster, ProxyMap proxyMap, boolean partialResults, long runnerTimeoutMillis, long cacheTtlMillis) {
         this.mapManager = mapManager;
         this.cluster = cluster;
+        this.proxyMap = proxyMap;
+        this.partialResults = partialResults;
+        this.runnerTimeoutMillis = runnerTimeoutMillis;
+        this.cacheTtlNanos = TimeUnit.MILLISECONDS.toNanos(cacheTtlMillis);
     }
 
     public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
         if (canHandle(target, request)) {
+            AppsQuery query;
+            try {
+                query = AppsQuery.from(request);
+            } catch (IllegalArgumentException e) {
+                response.sendError(400, e.getMessage());
+                baseRequest.setHandled(true);
+                return;
+            }
             try {
-                List<JSONObject> results = mapManager.loadAllApps(URI.create(request.getRequestURL().toString()), cluster.getRunners());
-                JSONObject all = new JSONObject();
-                List<JSONObject> unsorted = new ArrayList<>();
-
-                for (JSONObject result : results) {
-                    JSONArray singleApps = result.getJSONArray("apps");
-                    for (Object singleApp : singleApps) {
-                        unsorted.add((JSONObject) singleApp);
+                URI forwardedHost = URI.create(request.getRequestURL().toString());
+                String cacheKey = forwardedHost.getScheme() + "://" + forwardedHost.getAuthority();
+                AppsResponse apps = cacheTtlNanos > 0 ? cache.get(cacheKey) : null;
+                if (apps != null && apps.isFresh(proxyMap.version())) {
+                    cacheHits.increment();
+                } else {
+                    apps = loadOrJoin(cacheKey, forwardedHost);
+                    if (cacheTtlNanos > 0) {
+                        cacheMisses.increment();
+                        if (!apps.isComplete()) {
+                            cache.remove(cacheKey);
+                        } else {
+                            cache.put(cacheKey, apps);
+                        }
                     }
                 }
-                unsorted.sort((o1, o2) -> o1.getString("name").compareTo(o2.getString("name")));
-                JSONArray apps = new JSONArray();
-                for (JSONObject jsonObject : unsorted) {
-                    apps.put(jsonObject);
-                }
-                all.put("apps", apps);
-
-                response.setStatus(200);
-                response.setHeader("Content-Type", "application/json");
-                response.getWriter().append(all.toString(4)).close();
+                apps.writeTo(query, request, response);
             } catch (TimeoutException te) {
                 response.sendError(504, "Timed out calling all the app runner instances with message " + te.getMessage());
+            } catch (AppRunnerException e) {
+                log.warn("Could not aggregate the " + target + " call: " + e.getMessage());
+                response.sendError(502, e.getMessage());
             } catch (Exception e) {
                 log.error("Error while aggregating the " + target + " call", e);
                 response.sendError(502, "Error while aggregating the calls.");
@@ -61,7 +111,318 @@ class AppsCallAggregator extends AbstractHandler {
         }
     }
 
+    /**
+     * Requests that arrive while the runners are already being queried for the same host wait for that query
+     * rather than starting their own, so a burst of callers costs one fan-out.
+     */
+    private AppsResponse loadOrJoin(String cacheKey, URI forwardedHost) throws Exception {
+        CompletableFuture<AppsResponse> mine = new CompletableFuture<>();
+        CompletableFuture<AppsResponse> inProgress = inFlight.putIfAbsent(cacheKey, mine);
+        if (inProgress != null) {
+            coalesced.increment();
+            try {
+                return inProgress.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : new AppRunnerException(cause);
+            }
+        }
+        try {
+            AppsResponse apps = load(forwardedHost);
+            mine.complete(apps);
+            return apps;
+        } catch (Throwable t) {
+            mine.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(cacheKey, mine);
+        }
+    }
+
+    /**
+     * Runners whose circuits are open are not asked at all, just as new apps are not put on them and unknown apps
+     * are not looked up on them: they are listed as degraded when partial results are allowed, and otherwise their
+     * apps are left out. Either way the response is not cached, so their apps are listed again once they recover.
+     */
+    private AppsResponse load(URI forwardedHost) throws Exception {
+        List<Runner> runners = new ArrayList<>();
+        Map<Runner, Throwable> down = new LinkedHashMap<>();
+        for (Runner runner : cluster.getRunners()) {
+            if (runner.circuitBreaker().isClosed()) {
+                runners.add(runner);
+            } else {
+                down.put(runner, new AppRunnerException(runner.id + " is down so was not asked for its apps"));
+            }
+        }
+        List<RunnerApps> results;
+        JSONArray degraded = null;
+        if (partialResults) {
+            ClusterApps clusterApps = mapManager.loadAvailableApps(forwardedHost, runners, runnerTimeoutMillis);
+            Map<Runner, Throwable> failures = new LinkedHashMap<>(down);
+            failures.putAll(clusterApps.failures);
+            if (clusterApps.results.isEmpty() && !failures.isEmpty()) {
+                throw new AppRunnerException("None of the app runner instances could be reached");
+            }
+            results = clusterApps.results;
+            if (!failures.isEmpty()) {
+                degraded = degraded(failures);
+            }
+        } else {
+            if (runners.isEmpty() && !down.isEmpty()) {
+                throw new AppRunnerException("None of the app runner instances could be reached");
+            }
+            results = mapManager.loadAllApps(forwardedHost, runners);
+        }
+        // the version is read after loading because loading the runners can itself update the routes
+        return new AppsResponse(results, degraded, down.isEmpty(), proxyMap.version(), System.nanoTime() + cacheTtlNanos);
+    }
+
+    private static JSONArray degraded(Map<Runner, Throwable> failures) {
+        JSONArray degraded = new JSONArray();
+        for (Map.Entry<Runner, Throwable> failure : failures.entrySet()) {
+            Runner runner = failure.getKey();
+            Throwable cause = failure.getValue();
+            degraded.put(new JSONObject()
+                .put("id", runner.id)
+                .put("url", runner.url.toString())
+                .put("message", cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage()));
+        }
+        return degraded;
+    }
+
+    public long cacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long cacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    /**
+     * @return The number of requests that were answered by joining another request's query of the runners
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    public JSONObject stats() {
+        return new JSONObject()
+            .put("coalesced", coalesced())
+            .put("cacheHits", cacheHits())
+            .put("cacheMisses", cacheMisses());
+    }
+
     public static boolean canHandle(String target, HttpServletRequest request) {
         return "/api/v1/apps".equals(target) && request.getMethod().equals("GET");
     }
+
+    /**
+     * The runners' answers to a query, which can be shared between requests. The combined listing is never built
+     * in memory: each runner's apps are already sorted by name, so they are merged as they are written out.
+     */
+    private static class AppsResponse {
+        private static final byte[] APPS_START = "{\"apps\":[".getBytes(StandardCharsets.UTF_8);
+        private static final byte[] NEXT_CURSOR_START = ",\"nextCursor\":\"".getBytes(StandardCharsets.UTF_8);
+        private static final byte[] DEGRADED_START = ",\"degraded\":".getBytes(StandardCharsets.UTF_8);
+
+        private final List<RunnerApps> results;
+        private final JSONArray degraded;
+        private final boolean allRunnersAsked;
+        private final String etag;
+        private final long routeVersion;
+        private final long expiresAt;
+
+        private AppsResponse(List<RunnerApps> results, JSONArray degraded, boolean allRunnersAsked, long routeVersion, long expiresAt) {
+            this.results = results;
+            this.degraded = degraded;
+            this.allRunnersAsked = allRunnersAsked;
+            this.etag = etag(results, degraded);
+            this.routeVersion = routeVersion;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isPartial() {
+            return degraded != null;
+        }
+
+        /**
+         * @return False if any runner failed or was skipped, in which case the response should not be reused
+         */
+        boolean isComplete() {
+            return allRunnersAsked && !isPartial();
+        }
+
+        boolean isFresh(long currentRouteVersion) {
+            return routeVersion == currentRouteVersion && System.nanoTime() - expiresAt < 0;
+        }
+
+        void writeTo(AppsQuery query, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            String etag = query.isAll() ? this.etag : etagFor(query);
+            response.setHeader("ETag", etag);
+            if (isPartial()) {
+                response.setHeader(PARTIAL_HEADER, "true");
+            }
+            if (matches(etag, request.getHeader("If-None-Match"))) {
+                response.setStatus(304);
+                return;
+            }
+            response.setStatus(200);
+            response.setHeader("Content-Type", "application/json");
+            try (OutputStream out = response.getOutputStream()) {
+                writeMerged(query, out);
+            }
+        }
+
+        /**
+         * Each runner's apps are sorted, so the query's starting point is found by a binary search and the
+         * merge stops as soon as the limit is reached. Apps that are not returned are never serialized. Apps
+         * with the same name come out in runner order, and the cursor counts how many of them have been returned
+         * so that a page ending part way through them carries on from the next one.
+         */
+        private void writeMerged(AppsQuery query, OutputStream out) throws IOException {
+            PriorityQueue<Cursor> next = new PriorityQueue<>(Math.max(1, results.size()));
+            String from = query.from();
+            for (int i = 0; i < results.size(); i++) {
+                RunnerApps apps = results.get(i);
+                int start = apps.firstIndexFrom(from);
+                if (start < apps.size() && query.includes(apps.name(start))) {
+                    next.add(new Cursor(apps, i, start));
+                }
+            }
+            JsonGenerator projector = query.fields.isEmpty() ? null : projector(out);
+            out.write(APPS_START);
+            int written = 0;
+            String last = null;
+            int lastCount = 0;
+            int toSkip = query.after == null ? 0 : query.afterCount;
+            String nextCursor = null;
+            while (!next.isEmpty()) {
+                if (written == query.limit) {
+                    nextCursor = AppsQuery.encodeCursor(last, lastCount);
+                    break;
+                }
+                Cursor cursor = next.poll();
+                String name = cursor.name();
+                lastCount = name.equals(last) ? lastCount + 1 : 1;
+                last = name;
+                if (toSkip > 0 && name.equals(query.after)) {
+                    // returned on an earlier page
+                    toSkip--;
+                    if (cursor.advance() && query.includes(cursor.name())) {
+                        next.add(cursor);
+                    }
+                    continue;
+                }
+                if (written > 0) {
+                    out.write(',');
+                }
+                if (projector == null) {
+                    cursor.apps.writeApp(cursor.index, out);
+                } else {
+                    cursor.apps.writeFields(cursor.index, query.fields, projector);
+                    projector.flush();
+                }
+                written++;
+                if (cursor.advance() && query.includes(cursor.name())) {
+                    next.add(cursor);
+                }
+            }
+            out.write(']');
+            if (nextCursor != null) {
+                out.write(NEXT_CURSOR_START);
+                out.write(nextCursor.getBytes(StandardCharsets.US_ASCII));
+                out.write('"');
+            }
+            if (degraded != null) {
+                out.write(DEGRADED_START);
+                out.write(degraded.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            out.write('}');
+        }
+
+        private static JsonGenerator projector(OutputStream out) throws IOException {
+            JsonGenerator generator = JSON.createGenerator(out);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            generator.setRootValueSeparator(null);
+            return generator;
+        }
+
+        private String etagFor(AppsQuery query) {
+            return hex(sha1().digest((etag + query).getBytes(StandardCharsets.UTF_8)));
+        }
+
+        private static boolean matches(String etag, String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                String trimmed = candidate.trim();
+                if (trimmed.equals(etag) || trimmed.equals("*") || trimmed.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * The merged output is determined entirely by what the runners sent, so that is what gets hashed.
+         */
+        private static String etag(List<RunnerApps> results, JSONArray degraded) {
+            MessageDigest sha1 = sha1();
+            for (RunnerApps result : results) {
+                byte[] body = result.body();
+                sha1.update(ByteBuffer.allocate(4).putInt(body.length).array());
+                sha1.update(body);
+            }
+            if (degraded != null) {
+                sha1.update(degraded.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return hex(sha1.digest());
+        }
+
+        private static MessageDigest sha1() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new AppRunnerException("SHA-1 is not available", e);
+            }
+        }
+
+        private static String hex(byte[] digest) {
+            StringBuilder etag = new StringBuilder(digest.length * 2 + 2).append('"');
+            for (byte b : digest) {
+                etag.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return etag.append('"').toString();
+        }
+    }
+
+    /**
+     * The position of the merge within one runner's apps. Apps with the same name are written in runner order.
+     */
+    private static class Cursor implements Comparable<Cursor> {
+        private final RunnerApps apps;
+        private final int runnerOrder;
+        private int index;
+
+        private Cursor(RunnerApps apps, int runnerOrder, int index) {
+            this.apps = apps;
+            this.runnerOrder = runnerOrder;
+            this.index = index;
+        }
+
+        String name() {
+            return apps.name(index);
+        }
+
+        boolean advance() {
+            return ++index < apps.size();
+        }
+
+        public int compareTo(Cursor o) {
+            int byName = name().compareTo(o.name());
+            return byName != 0 ? byName : Integer.compare(runnerOrder, o.runnerOrder);
+        }
+    }
 }
@@ -0,0 +1,148 @@
+package com.danielflower.apprunner.router.web;
+
+import javax.servlet.http.HttpServletRequest;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * The query string options of <code>GET /api/v1/apps</code>:
+ * <ul>
+ *     <li><code>prefix</code> - only apps whose names start with this</li>
+ *     <li><code>limit</code> - the most apps to return; if there are more, a <code>nextCursor</code> is returned</li>
+ *     <li><code>cursor</code> - the <code>nextCursor</code> of the previous page</li>
+ *     <li><code>fields</code> - a comma separated list of the app properties to return, such as <code>name,url</code></li>
+ * </ul>
+ */
+final class AppsQuery {
+    static final AppsQuery ALL = new AppsQuery("", Integer.MAX_VALUE, null, 0, Collections.emptySet());
+
+    /** Separates the app name in a cursor from the number of apps with that name already returned */
+    private static final char CURSOR_SEPARATOR = '\u0000';
+
+    final String prefix;
+    final int limit;
+    final String after;
+    /**
+     * How many apps named {@link #after} were returned on earlier pages. The same app can be on more than one
+     * runner, so a page can end part way through the copies of an app.
+     */
+    final int afterCount;
+    final Set<String> fields;
+
+    private AppsQuery(String prefix, int limit, String after, int afterCount, Set<String> fields) {
+        this.prefix = prefix;
+        this.limit = limit;
+        this.after = after;
+        this.afterCount = afterCount;
+        this.fields = fields;
+    }
+
+    /**
+     * @throws IllegalArgumentException if any of the parameters are invalid
+     */
+    static AppsQuery from(HttpServletRequest request) {
+        String prefix = request.getParameter("prefix");
+        String limit = request.getParameter("limit");
+        String cursor = request.getParameter("cursor");
+        String fields = request.getParameter("fields");
+        if (prefix == null && limit == null && cursor == null && fields == null) {
+            return ALL;
+        }
+        String decoded = decodeCursor(cursor);
+        String after = null;
+        int afterCount = 0;
+        if (decoded != null) {
+            int separator = decoded.lastIndexOf(CURSOR_SEPARATOR);
+            if (separator == -1) {
+                // a cursor from before the count was added, which meant every app with the name had been returned
+                after = decoded;
+                afterCount = Integer.MAX_VALUE;
+            } else {
+                after = decoded.substring(0, separator);
+                try {
+                    afterCount = Integer.parseInt(decoded.substring(separator + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("The cursor " + cursor + " is not valid");
+                }
+            }
+        }
+        return new AppsQuery(prefix == null ? "" : prefix, parseLimit(limit), after, afterCount, parseFields(fields));
+    }
+
+    private static int parseLimit(String limit) {
+        if (isBlank(limit)) {
+            return Integer.MAX_VALUE;
+        }
+        try {
+            int value = Integer.parseInt(limit.trim());
+            if (value >= 1) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("The limit must be a positive whole number but was " + limit);
+    }
+
+    private static String decodeCursor(String cursor) {
+        if (isBlank(cursor)) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("The cursor " + cursor + " is not valid");
+        }
+    }
+
+    /**
+     * @param lastName  The name of the last app returned
+     * @param lastCount How many apps with that name have been returned so far, counting earlier pages
+     */
+    static String encodeCursor(String lastName, int lastCount) {
+        String cursor = lastName + CURSOR_SEPARATOR + lastCount;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Set<String> parseFields(String fields) {
+        if (isBlank(fields)) {
+            return Collections.emptySet();
+        }
+        Set<String> names = new LinkedHashSet<>();
+        for (String field : fields.split(",")) {
+            if (!isBlank(field)) {
+                names.add(field.trim());
+            }
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    boolean isAll() {
+        return this == ALL;
+    }
+
+    /**
+     * @return The smallest app name that can be in the results. The first {@link #afterCount} apps with this name
+     * must be skipped.
+     */
+    String from() {
+        if (after == null || after.compareTo(prefix) < 0) {
+            return prefix;
+        }
+        return after;
+    }
+
+    boolean includes(String name) {
+        return name.startsWith(prefix);
+    }
+
+    @Override
+    public String toString() {
+        return "prefix=" + prefix + "&limit=" + limit + "&after=" + after + "&afterCount=" + afterCount + "&fields=" + fields;
+    }
+}
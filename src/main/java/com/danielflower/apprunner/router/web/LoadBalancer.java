@@ -0,0 +1,117 @@
+package com.danielflower.apprunner.router.web;
+
+import com.danielflower.apprunner.router.problems.InvalidConfigException;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks which replica of an app a request is sent to. Apps with a single replica never get this far.
+ */
+public enum LoadBalancer {
+
+    /** Each replica in turn */
+    ROUND_ROBIN("round-robin") {
+        Upstream pick(Route route) {
+            List<Upstream> replicas = route.replicas;
+            return replicas.get(route.nextIndex() % replicas.size());
+        }
+    },
+
+    /**
+     * The replica with the fewest requests in flight, taking turns between replicas that are equally busy
+     */
+    LEAST_REQUESTS("least-requests") {
+        Upstream pick(Route route) {
+            List<Upstream> replicas = route.replicas;
+            int size = replicas.size();
+            int start = route.nextIndex() % size;
+            Upstream best = null;
+            long bestInFlight = Long.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                Upstream replica = replicas.get((start + i) % size);
+                long inFlight = replica.inFlight();
+                if (inFlight < bestInFlight) {
+                    best = replica;
+                    bestInFlight = inFlight;
+                }
+            }
+            return best;
+        }
+    },
+
+    /**
+     * Whichever of two randomly chosen replicas has fewer requests in flight, which avoids busy replicas
+     * without every request piling onto the same least busy one.
+     */
+    POWER_OF_TWO("power-of-two") {
+        Upstream pick(Route route) {
+            List<Upstream> replicas = route.replicas;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(replicas.size());
+            int second = random.nextInt(replicas.size() - 1);
+            if (second >= first) {
+                second++;
+            }
+            Upstream a = replicas.get(first);
+            Upstream b = replicas.get(second);
+            return a.inFlight() <= b.inFlight() ? a : b;
+        }
+    },
+
+    /**
+     * The replica with the lowest average latency weighted by its requests in flight. Replicas that have not
+     * answered anything yet are taken to have the mean latency of the others, so they get tried without
+     * taking all the traffic while their first requests are outstanding.
+     */
+    EWMA("ewma") {
+        Upstream pick(Route route) {
+            double total = 0;
+            int sampled = 0;
+            for (Upstream replica : route.replicas) {
+                double latency = replica.latencyMillis();
+                if (latency > 0) {
+                    total += latency;
+                    sampled++;
+                }
+            }
+            double unsampledLatency = sampled == 0 ? 1 : total / sampled;
+            Upstream best = null;
+            double bestCost = Double.MAX_VALUE;
+            for (Upstream replica : route.replicas) {
+                double latency = replica.latencyMillis();
+                double cost = (latency > 0 ? latency : unsampledLatency) * (replica.inFlight() + 1);
+                if (cost < bestCost) {
+                    best = replica;
+                    bestCost = cost;
+                }
+            }
+            return best;
+        }
+    };
+
+    public final String configName;
+
+    LoadBalancer(String configName) {
+        this.configName = configName;
+    }
+
+    public Upstream choose(Route route) {
+        return route.replicas.size() == 1 ? route.primary() : pick(route);
+    }
+
+    abstract Upstream pick(Route route);
+
+    /**
+     * @param configName One of <code>round-robin</code>, <code>least-requests</code>, <code>power-of-two</code>
+     *                   or <code>ewma</code>
+     */
+    public static LoadBalancer fromConfig(String configName) {
+        for (LoadBalancer balancer : values()) {
+            if (balancer.configName.equalsIgnoreCase(configName)) {
+                return balancer;
+            }
+        }
+        throw new InvalidConfigException("Unknown load balancer " + configName + " - use round-robin, least-requests, power-of-two or ewma");
+    }
+}
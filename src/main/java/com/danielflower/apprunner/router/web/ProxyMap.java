@@ -4,33 +4,76 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
+/**
+ * The routes from app names to runners. Readers get the current {@link RouteTable} with a single volatile
+ * read and never block; writers are serialised, build a new table and publish it in one swap.
+ */
 public class ProxyMap {
     private static final Logger log = LoggerFactory.getLogger(ProxyMap.class);
-    private final ConcurrentHashMap<String, URI> mapping = new ConcurrentHashMap<>();
+    private volatile RouteTable table = RouteTable.EMPTY;
+    private final List<BiConsumer<RouteTable, Set<String>>> listeners = new CopyOnWriteArrayList<>();
 
     public void add(String prefix, URI url) {
-        URI old = mapping.put(prefix, url);
-        if (old == null) {
-            log.info(prefix + " maps to " + url);
-        } else {
-            log.info(prefix + " maps to " + url + " (previously " + old + ")");
-        }
+        update(routes -> routes.put(Route.create(prefix, url)));
     }
 
     public void remove(String prefix) {
-        URI remove = mapping.remove(prefix);
-        if (remove != null) {
-            log.info("Removed " + prefix + " mapping to " + remove);
+        update(routes -> routes.remove(prefix));
+    }
+
+    /**
+     * Applies any number of changes as one new version of the route table.
+     * @return The table after the changes, which is the existing table if nothing changed.
+     */
+    public synchronized RouteTable update(Consumer<RouteTable.Builder> changes) {
+        RouteTable.Builder builder = table.toBuilder();
+        changes.accept(builder);
+        if (builder.hasChanges()) {
+            table = builder.build();
+            log.info("Route table is now at version " + table.version() + " with " + table.size() + " apps ("
+                + builder.describeChanges() + ")");
+            for (BiConsumer<RouteTable, Set<String>> listener : listeners) {
+                listener.accept(table, builder.addedApps());
+            }
         }
+        return table;
+    }
+
+    /**
+     * Registers something to be told about each new version of the route table, straight after it is published,
+     * along with the names of the apps that did not have a route before
+     */
+    public void addListener(BiConsumer<RouteTable, Set<String>> listener) {
+        listeners.add(listener);
+    }
+
+    public Route get(String prefix) {
+        return table.get(prefix);
+    }
+
+    /**
+     * Looks up the app whose name is <code>uri[start, end)</code>
+     */
+    public Route get(String uri, int start, int end) {
+        return table.get(uri, start, end);
+    }
+
+    public RouteTable snapshot() {
+        return table;
     }
 
-    public URI get(String prefix) {
-        return mapping.getOrDefault(prefix, null);
+    public long version() {
+        return table.version();
     }
 
-    public ConcurrentHashMap<String, URI> getAll() {
-        return mapping;
+    public Map<String, Route> getAll() {
+        return table.all();
     }
 }
@@ -0,0 +1,114 @@
+package com.danielflower.apprunner.router.web;
+
+/**
+ * Classifies a request URI in a single pass, recording where the app name starts and ends rather than
+ * copying it out, so routing a request needs no regular expressions and no intermediate strings.
+ */
+final class RequestPath {
+
+    enum Kind {
+        /** <code>/{name}...</code> - a request to an app's web interface */
+        APP_WEB,
+        /** <code>/api/v1/apps/{name}...</code> - an app runner API call about a single app */
+        APP_API,
+        /** <code>POST /api/v1/apps</code> */
+        APP_CREATION,
+        /** <code>DELETE /api/v1/apps/{name}</code> */
+        APP_DELETION,
+        /** <code>/api/v1/swagger.json</code> and <code>/api/v1/system...</code>, which any runner can answer */
+        SYSTEM,
+        /** Anything else, which the router cannot proxy */
+        UNKNOWN
+    }
+
+    static final String API_PREFIX = "/api/";
+    static final String APPS_PATH = "/api/v1/apps";
+    private static final int API_V1_LENGTH = "/api/v1/".length();
+    private static final int APP_NAME_START = APPS_PATH.length() + 1;
+    private static final RequestPath UNKNOWN = new RequestPath(Kind.UNKNOWN, null, -1, -1);
+    private static final RequestPath CREATION = new RequestPath(Kind.APP_CREATION, APPS_PATH, -1, -1);
+
+    final Kind kind;
+    final String uri;
+    final int nameStart;
+    final int nameEnd;
+
+    private RequestPath(Kind kind, String uri, int nameStart, int nameEnd) {
+        this.kind = kind;
+        this.uri = uri;
+        this.nameStart = nameStart;
+        this.nameEnd = nameEnd;
+    }
+
+    static RequestPath parse(String method, String uri) {
+        if (uri == null || uri.isEmpty() || uri.charAt(0) != '/') {
+            return UNKNOWN;
+        }
+        if (!uri.startsWith(API_PREFIX)) {
+            return app(Kind.APP_WEB, method, uri, 1);
+        }
+        if (isAppCreation(method, uri)) {
+            return CREATION;
+        }
+        if (uri.equals("/api/v1/swagger.json") || uri.startsWith("/api/v1/system")) {
+            return new RequestPath(Kind.SYSTEM, uri, -1, -1);
+        }
+        if (uri.startsWith(APPS_PATH) && uri.length() > APPS_PATH.length() && uri.charAt(APPS_PATH.length()) == '/') {
+            return app(Kind.APP_API, method, uri, APP_NAME_START);
+        }
+        return UNKNOWN;
+    }
+
+    static boolean isAppCreation(String method, String uri) {
+        return "POST".equalsIgnoreCase(method) && APPS_PATH.equals(uri);
+    }
+
+    static boolean isAppDeletion(String method, String uri) {
+        return "DELETE".equalsIgnoreCase(method) && parse(method, uri).kind == Kind.APP_DELETION;
+    }
+
+    private static RequestPath app(Kind kind, String method, String uri, int nameStart) {
+        int length = uri.length();
+        int nameEnd = nameStart;
+        while (nameEnd < length) {
+            char c = uri.charAt(nameEnd);
+            if (c == '/' || c == '?') {
+                break;
+            }
+            nameEnd++;
+        }
+        if (nameEnd == nameStart) {
+            return UNKNOWN;
+        }
+        boolean hasMoreSegments = false;
+        for (int i = nameEnd; i < length; i++) {
+            char c = uri.charAt(i);
+            if (isLineTerminator(c)) {
+                // the old "(.*)" pattern would not have matched these, so neither do we
+                return UNKNOWN;
+            }
+            hasMoreSegments |= c == '/';
+        }
+        if (kind == Kind.APP_API && !hasMoreSegments && "DELETE".equalsIgnoreCase(method)) {
+            kind = Kind.APP_DELETION;
+        }
+        return new RequestPath(kind, uri, nameStart, nameEnd);
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    boolean isApp() {
+        return nameStart >= 0;
+    }
+
+    String appName() {
+        return uri.substring(nameStart, nameEnd);
+    }
+
+    @Override
+    public String toString() {
+        return kind + (isApp() ? " " + appName() : "");
+    }
+}
@@ -0,0 +1,98 @@
+package com.danielflower.apprunner.router.web;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides whether a request that failed to reach a runner can be tried again.
+ * <p>
+ * Retries come out of a budget that every proxied request adds a small amount to, so that retries can never be
+ * more than a set percentage of traffic. When runners are failing because they are overloaded, retrying every
+ * failure would multiply the load on them; with a budget, the retries dry up and the failures are passed on.
+ * The budget can save up a few retries while things are quiet so that occasional failures are always retried.
+ */
+public class RetryPolicy {
+    /** Retrying turned off */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0);
+
+    /** The most times a single request is retried */
+    public static final int MAX_RETRIES_PER_REQUEST = 2;
+
+    private static final long COST_OF_A_RETRY = 100;
+    private static final long MAX_SAVED_RETRIES = 10;
+
+    private final int percent;
+    private final long backoffMillis;
+    private final long maxBalance;
+    private final AtomicLong balance;
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder refused = new LongAdder();
+
+    /**
+     * @param percent       The most retries there can be as a percentage of requests, or 0 to never retry
+     * @param backoffMillis How long to wait before retrying against the same runner, multiplied by the number of
+     *                      times the request has been retried. Retries against another replica are sent straight away.
+     */
+    public RetryPolicy(int percent, long backoffMillis) {
+        this.percent = Math.max(0, percent);
+        this.backoffMillis = Math.max(0, backoffMillis);
+        this.maxBalance = this.percent > 0 ? MAX_SAVED_RETRIES * COST_OF_A_RETRY : 0;
+        this.balance = new AtomicLong(maxBalance);
+    }
+
+    public boolean isEnabled() {
+        return percent > 0;
+    }
+
+    /**
+     * Called for every request sent to a runner, apart from retries, to add to the budget
+     */
+    public void onRequest() {
+        // the budget is normally full, so this is usually just a read
+        if (percent > 0 && balance.get() < maxBalance) {
+            balance.accumulateAndGet(percent, (current, add) -> Math.min(maxBalance, current + add));
+        }
+    }
+
+    /**
+     * @return True if there is budget left for a retry, in which case it has been used up
+     */
+    public boolean tryRetry() {
+        if (percent == 0) {
+            return false;
+        }
+        while (true) {
+            long current = balance.get();
+            if (current < COST_OF_A_RETRY) {
+                refused.increment();
+                return false;
+            }
+            if (balance.compareAndSet(current, current - COST_OF_A_RETRY)) {
+                retried.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param retries How many times the request has been retried already
+     * @return How long to wait before trying the same runner again
+     */
+    public long backoffMillis(int retries) {
+        return backoffMillis * (retries + 1);
+    }
+
+    /**
+     * @return The number of requests that have been retried
+     */
+    public long retried() {
+        return retried.sum();
+    }
+
+    /**
+     * @return The number of failed requests that could have been retried but were not because the budget ran out
+     */
+    public long refused() {
+        return refused.sum();
+    }
+}
@@ -2,38 +2,117 @@ package com.danielflower.apprunner.router.web;
 
 import com.danielflower.apprunner.router.mgmt.Cluster;
 import com.danielflower.apprunner.router.mgmt.MapManager;
+import com.danielflower.apprunner.router.mgmt.PerRunnerTransport;
 import com.danielflower.apprunner.router.mgmt.Runner;
+import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.api.Request;
 import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.http.HttpVersion;
 import org.eclipse.jetty.proxy.AsyncProxyServlet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import static org.apache.commons.lang3.StringUtils.isEmpty;
 
 public class ReverseProxy extends AsyncProxyServlet {
     public static final Logger log = LoggerFactory.getLogger(ReverseProxy.class);
-
-    private static final Pattern APP_WEB_REQUEST = Pattern.compile("/([^/?]+)(.*)");
-    private static final Pattern APP_API_REQUEST = Pattern.compile("/api/v1/apps/([^/?]+)(.*)");
+    private static final String RESERVED_RUNNER = ReverseProxy.class.getName() + ".reservedRunner";
+    private static final String LOOKED_UP = ReverseProxy.class.getName() + ".lookedUp";
+    private static final String UPSTREAM = ReverseProxy.class.getName() + ".upstream";
+    private static final String TARGET_RUNNER = ReverseProxy.class.getName() + ".targetRunner";
+    private static final String SENT = ReverseProxy.class.getName() + ".sent";
+    private static final String RETRIES = ReverseProxy.class.getName() + ".retries";
+    private static final byte[] NOT_FOUND = "404 Not Found".getBytes(StandardCharsets.UTF_8);
+    private static final long UNKNOWN_APP_LOG_INTERVAL = 1000;
+    private static final long OVERLOAD_LOG_INTERVAL = 100;
+    private static final String RETRY_AFTER_SECONDS = "1";
 
     private final ProxyMap proxyMap;
     private final Cluster cluster;
     private final MapManager mapManager;
+    private final UnknownApps unknownApps;
+    private final LoadBalancer loadBalancer;
+    private final RetryPolicy retryPolicy;
+    private final LongAdder queueRejections = new LongAdder();
 
-    public ReverseProxy(Cluster cluster, ProxyMap proxyMap, MapManager mapManager) {
+    public ReverseProxy(Cluster cluster, ProxyMap proxyMap, MapManager mapManager, UnknownApps unknownApps, LoadBalancer loadBalancer, RetryPolicy retryPolicy) {
         this.cluster = cluster;
         this.proxyMap = proxyMap;
         this.mapManager = mapManager;
+        this.unknownApps = unknownApps;
+        this.loadBalancer = loadBalancer;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * If a request is for an app that is not in the routes, such as one that was just created directly on a
+     * runner, then before giving up with a 404 the runners are asked whether they have it. The request is
+     * parked without holding a thread while they answer, and is then dispatched again to be proxied (or 404ed)
+     * as normal. However many requests are waiting for the same app, the runners are asked only once.
+     * <p>
+     * Apps that no runner has are remembered for a while, and further requests for them get a 404 straight
+     * away without going anywhere near the proxy machinery.
+     */
+    @Override
+    protected void service(HttpServletRequest clientRequest, HttpServletResponse proxyResponse) throws ServletException, IOException {
+        if (clientRequest.getAttribute(LOOKED_UP) == null) {
+            String uri = clientRequest.getRequestURI();
+            RequestPath path = RequestPath.parse(clientRequest.getMethod(), uri);
+            if (path.isApp() && proxyMap.get(uri, path.nameStart, path.nameEnd) == null) {
+                String appName = path.appName();
+                if (unknownApps.contains(appName)) {
+                    sendNotFound(uri, proxyResponse);
+                    return;
+                }
+                clientRequest.setAttribute(LOOKED_UP, Boolean.TRUE);
+                AsyncContext asyncContext = clientRequest.startAsync();
+                asyncContext.setTimeout(0);
+                mapManager.lookupApp(forwardedHost(clientRequest), appName, cluster.getRunners()).whenComplete((route, error) -> {
+                    if (error != null) {
+                        log.info("Could not look up " + appName + ": " + error.getMessage());
+                    } else if (!route.isPresent()) {
+                        unknownApps.add(appName);
+                    }
+                    asyncContext.dispatch();
+                });
+                return;
+            }
+        }
+        super.service(clientRequest, proxyResponse);
+    }
+
+    private static URI forwardedHost(HttpServletRequest clientRequest) {
+        try {
+            return new URI(clientRequest.getScheme(), null, clientRequest.getServerName(), clientRequest.getServerPort(), null, null, null);
+        } catch (URISyntaxException e) {
+            return URI.create("/");
+        }
+    }
+
+    private void sendNotFound(String uri, HttpServletResponse response) throws IOException {
+        long hits = unknownApps.hits();
+        if (hits % UNKNOWN_APP_LOG_INTERVAL == 1) {
+            log.info("Sent 404 to " + hits + " requests for apps known to not exist, such as " + uri);
+        }
+        response.setStatus(404);
+        response.setContentType("text/plain;charset=utf-8");
+        response.setContentLength(NOT_FOUND.length);
+        response.getOutputStream().write(NOT_FOUND);
     }
 
     protected String filterServerResponseHeader(HttpServletRequest clientRequest, Response serverResponse, String headerName, String headerValue) {
@@ -52,46 +131,53 @@ public class ReverseProxy extends AsyncProxyServlet {
 
     protected String rewriteTarget(HttpServletRequest clientRequest) {
         String uri = clientRequest.getRequestURI();
-        String query = isEmpty(clientRequest.getQueryString()) ? "" : "?" + clientRequest.getQueryString();
+        String query = clientRequest.getQueryString();
 
         log.debug(clientRequest.getMethod() + " " + uri);
-        if (uri.startsWith("/api/")) {
-            if (isAppCreationPost(clientRequest)) {
-                Optional<Runner> targetRunner = cluster.allocateRunner(proxyMap.getAll());
+        RequestPath path = RequestPath.parse(clientRequest.getMethod(), uri);
+        switch (path.kind) {
+            case APP_CREATION:
+                Optional<Runner> targetRunner = cluster.allocateRunner(proxyMap);
                 if (targetRunner.isPresent()) {
+                    clientRequest.setAttribute(RESERVED_RUNNER, targetRunner.get());
+                    clientRequest.setAttribute(TARGET_RUNNER, targetRunner.get());
                     URI targetAppRunner = targetRunner.get().url;
-                    return targetAppRunner.resolve(uri) + query;
+                    return targetAppRunner.resolve(uri) + (isEmpty(query) ? "" : "?" + query);
                 } else {
                     log.error("There are no app runner instances available! Add another instance or change the maxApps value of an existing one.");
                     return null;
                 }
-            } else if (uri.equals("/api/v1/swagger.json") || uri.startsWith("/api/v1/system")) {
+            case SYSTEM:
                 List<Runner> runners = cluster.getRunners();
                 if (runners.size() > 0) {
-                    return runners.get(0).url.resolve(uri).toString();
+                    Runner runner = runners.stream().filter(r -> r.circuitBreaker().isClosed()).findFirst().orElse(runners.get(0));
+                    clientRequest.setAttribute(TARGET_RUNNER, runner);
+                    return runner.url.resolve(uri).toString();
                 }
-            } else {
-                Matcher appMatcher = APP_API_REQUEST.matcher(uri);
-                if (appMatcher.matches()) {
-                    String appName = appMatcher.group(1);
-                    URI url = proxyMap.get(appName);
-                    if (url != null) {
-                        String newTarget = url.resolve(uri + query).toString();
-                        log.info("Proxying to " + newTarget);
-                        return newTarget;
-                    }
+                break;
+            case APP_API:
+            case APP_DELETION: {
+                Route route = proxyMap.get(uri, path.nameStart, path.nameEnd);
+                if (route != null) {
+                    // API calls change the app, so they all go to the same replica rather than being spread around
+                    Upstream upstream = route.primary();
+                    clientRequest.setAttribute(UPSTREAM, upstream);
+                    String newTarget = upstream.apiTarget(uri, query);
+                    log.info("Proxying to " + newTarget);
+                    return newTarget;
                 }
+                break;
             }
-        } else {
-            Matcher appMatcher = APP_WEB_REQUEST.matcher(uri);
-            if (appMatcher.matches()) {
-                String prefix = appMatcher.group(1);
-                URI url = proxyMap.get(prefix);
-                if (url != null) {
-                    String newTarget = url.toString() + appMatcher.group(2) + query;
+            case APP_WEB: {
+                Route route = proxyMap.get(uri, path.nameStart, path.nameEnd);
+                if (route != null) {
+                    Upstream upstream = avoidOpenCircuits(route, loadBalancer.choose(route));
+                    clientRequest.setAttribute(UPSTREAM, upstream);
+                    String newTarget = upstream.webTarget(uri, path.nameEnd, query);
                     log.info("Proxying to " + newTarget);
                     return newTarget;
                 }
+                break;
             }
         }
 
@@ -99,36 +185,316 @@ public class ReverseProxy extends AsyncProxyServlet {
         return null;
     }
 
+    /**
+     * @return The chosen replica, unless its runner's circuit is open and another replica's is not
+     */
+    private Upstream avoidOpenCircuits(Route route, Upstream chosen) {
+        if (route.replicas.size() == 1 || isUp(chosen)) {
+            return chosen;
+        }
+        for (Upstream replica : route.replicas) {
+            if (isUp(replica)) {
+                return replica;
+            }
+        }
+        return chosen;
+    }
+
+    private boolean isUp(Upstream upstream) {
+        return cluster.runnerAt(upstream.runnerAuthority).map(runner -> runner.circuitBreaker().isClosed()).orElse(true);
+    }
+
+    /**
+     * Gives each runner its own connection pool and request queue, sized by its limits.
+     */
+    @Override
+    protected HttpClient newHttpClient() {
+        return PerRunnerTransport.newHttpClient(cluster::limitsAt, null);
+    }
+
+    @Override
+    protected void sendProxyRequest(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Request proxyRequest) {
+        if (clientRequest.getAttribute(RETRIES) == null) {
+            retryPolicy.onRequest();
+        }
+        Upstream upstream = (Upstream) clientRequest.getAttribute(UPSTREAM);
+        Runner runner = upstream == null
+            ? (Runner) clientRequest.getAttribute(TARGET_RUNNER)
+            : cluster.runnerAt(upstream.runnerAuthority).orElse(null);
+        if (runner != null && !runner.circuitBreaker().allowRequest()) {
+            rejectUnavailable(clientRequest, proxyResponse, runner);
+            return;
+        }
+        if (runner != null && !runner.concurrencyLimit().tryAcquire()) {
+            rejectOverloaded(clientRequest, proxyResponse, runner);
+            return;
+        }
+        if (upstream != null) {
+            upstream.requestStarted();
+        }
+        if (runner != null) {
+            runner.requestStarted();
+        }
+        clientRequest.setAttribute(SENT, new Sent(runner, upstream, System.nanoTime()));
+        super.sendProxyRequest(clientRequest, proxyResponse, proxyRequest);
+    }
+
+    private void rejectOverloaded(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Runner runner) {
+        releaseReservation(clientRequest);
+        long rejected = runner.concurrencyLimit().rejected();
+        if (rejected % OVERLOAD_LOG_INTERVAL == 1) {
+            log.warn("Sent 503 to " + rejected + " requests for " + runner.id + " as it is at its limit of "
+                + runner.concurrencyLimit().limit() + " concurrent requests, such as " + clientRequest.getRequestURI());
+        }
+        proxyResponse.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+        sendProxyResponseError(clientRequest, proxyResponse, 503);
+    }
+
+    private void rejectUnavailable(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Runner runner) {
+        releaseReservation(clientRequest);
+        long rejected = runner.circuitBreaker().rejected();
+        if (rejected % OVERLOAD_LOG_INTERVAL == 1) {
+            log.warn("Sent 503 to " + rejected + " requests for " + runner.id + " as it seems to be down, such as "
+                + clientRequest.getRequestURI());
+        }
+        proxyResponse.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+        sendProxyResponseError(clientRequest, proxyResponse, 503);
+    }
+
     @Override
     protected void onServerResponseHeaders(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Response serverResponse) {
+        Sent sent = (Sent) clientRequest.getAttribute(SENT);
+        if (sent != null) {
+            long latency = System.nanoTime() - sent.nanoTime;
+            sent.responded = true;
+            if (sent.upstream != null) {
+                sent.upstream.recordLatency(latency);
+            }
+            if (sent.runner != null) {
+                sent.runner.concurrencyLimit().onResponse(latency);
+                if (sent.runner.circuitBreaker().onSuccess()) {
+                    log.info(sent.runner.id + " responded to a request so requests will be sent to it again");
+                }
+            }
+        }
         super.onServerResponseHeaders(clientRequest, proxyResponse, serverResponse);
         if (isAppCreationPost(clientRequest)) {
-            URI runnerURI = serverResponse.getRequest().getURI();
-            if (proxyResponse.getStatus() == 201) {
-                String appName = proxyResponse.getHeader("Location");
-                appName = appName.substring(appName.lastIndexOf("/") + 1);
-                URI targetAppRunnerURI = runnerURI.resolve("/" + appName);
-                proxyMap.add(appName, targetAppRunnerURI);
-            } else {
-                cluster.getRunnerByURL(runnerURI).ifPresent(runner -> runner.numberOfApps.decrementAndGet());
+            try {
+                String location = proxyResponse.getHeader("Location");
+                if (proxyResponse.getStatus() == 201 && location != null) {
+                    String appName = location.substring(location.lastIndexOf("/") + 1);
+                    URI targetAppRunnerURI = serverResponse.getRequest().getURI().resolve("/" + appName);
+                    proxyMap.add(appName, targetAppRunnerURI);
+                } else if (proxyResponse.getStatus() == 201) {
+                    log.warn("An app was created on " + serverResponse.getRequest().getURI().getAuthority()
+                        + " but no Location was returned, so it will not be routed to until the runner is next reconciled");
+                }
+            } finally {
+                // the new app (if any) is in the route table now, so the slot no longer needs holding
+                releaseReservation(clientRequest);
             }
         } else if (isAppDeletionPost(clientRequest) && proxyResponse.getStatus() == 200) {
-            URI runnerURI = serverResponse.getRequest().getURI();
             String appName = clientRequest.getRequestURI().substring(clientRequest.getRequestURI().lastIndexOf('/') + 1);
-            proxyMap.remove(appName);
-            cluster.getRunnerByURL(runnerURI).ifPresent(runner -> runner.numberOfApps.decrementAndGet());
+            String runnerAuthority = serverResponse.getRequest().getURI().getAuthority();
+            proxyMap.update(routes -> routes.removeFromRunner(runnerAuthority, appName::equals));
+        }
+    }
+
+    @Override
+    protected void onProxyResponseSuccess(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Response serverResponse) {
+        requestFinished(clientRequest, null);
+        super.onProxyResponseSuccess(clientRequest, proxyResponse, serverResponse);
+    }
+
+    @Override
+    protected void onProxyResponseFailure(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Response serverResponse, Throwable failure) {
+        Sent sent = (Sent) clientRequest.getAttribute(SENT);
+        releaseReservation(clientRequest);
+        requestFinished(clientRequest, failure);
+        if (retry(clientRequest, proxyResponse, serverResponse.getRequest(), sent, failure)) {
+            return;
+        }
+        if (!rejectedByQueue(clientRequest, proxyResponse, failure)) {
+            super.onProxyResponseFailure(clientRequest, proxyResponse, serverResponse, failure);
+        }
+    }
+
+    @Override
+    protected void onClientRequestFailure(HttpServletRequest clientRequest, Request proxyRequest, HttpServletResponse proxyResponse, Throwable failure) {
+        releaseReservation(clientRequest);
+        // this is the client failing to send its request, which is not the runner's fault
+        requestFinished(clientRequest, null);
+        if (!rejectedByQueue(clientRequest, proxyResponse, failure)) {
+            super.onClientRequestFailure(clientRequest, proxyRequest, proxyResponse, failure);
+        }
+    }
+
+    /**
+     * Requests that cannot change anything and have no body, which failed because the runner refused the
+     * connection or dropped it before responding, are tried again: on another replica of the app if there is one
+     * that is up, or else on the same runner after a short backoff. Nothing has been sent to the client at this
+     * point, so it never knows. Requests that timed out are not retried, as the runner may still be working on them.
+     * @return True if the request is being retried
+     */
+    private boolean retry(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Request failed, Sent sent, Throwable failure) {
+        if (!retryPolicy.isEnabled() || sent == null || sent.responded || proxyResponse.isCommitted()
+            || !(failure instanceof IOException) || !isRetryable(clientRequest)) {
+            return false;
+        }
+        Integer previous = (Integer) clientRequest.getAttribute(RETRIES);
+        int retries = previous == null ? 0 : previous;
+        if (retries >= RetryPolicy.MAX_RETRIES_PER_REQUEST) {
+            return false;
+        }
+        if (!retryPolicy.tryRetry()) {
+            long refused = retryPolicy.refused();
+            if (refused % OVERLOAD_LOG_INTERVAL == 1) {
+                log.warn("Did not retry " + refused + " failed requests as the retry budget was used up, such as "
+                    + clientRequest.getRequestURI());
+            }
+            return false;
+        }
+        clientRequest.setAttribute(RETRIES, retries + 1);
+        String otherReplica = sent.upstream == null ? null : targetOnAnotherReplica(clientRequest, sent.upstream);
+        if (otherReplica != null) {
+            log.info("Retrying on " + otherReplica + " after " + failed.getURI() + " failed: " + failure.getMessage());
+            resend(clientRequest, proxyResponse, otherReplica);
+        } else {
+            String target = failed.getURI().toString();
+            log.info("Retrying " + target + " after it failed: " + failure.getMessage());
+            getHttpClient().getScheduler().schedule(() -> resend(clientRequest, proxyResponse, target),
+                retryPolicy.backoffMillis(retries), TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    private boolean isRetryable(HttpServletRequest clientRequest) {
+        switch (clientRequest.getMethod()) {
+            case "GET":
+            case "HEAD":
+            case "PUT":
+            case "DELETE":
+                // the body has been read by the failed attempt, so can't be sent again
+                return !hasContent(clientRequest);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return The target URL on a replica of the app other than the one that failed, or null if there is none up
+     */
+    private String targetOnAnotherReplica(HttpServletRequest clientRequest, Upstream failed) {
+        String uri = clientRequest.getRequestURI();
+        RequestPath path = RequestPath.parse(clientRequest.getMethod(), uri);
+        if (path.kind != RequestPath.Kind.APP_WEB) {
+            return null;
+        }
+        Route route = proxyMap.get(uri, path.nameStart, path.nameEnd);
+        if (route == null) {
+            return null;
+        }
+        for (Upstream replica : route.replicas) {
+            if (!replica.equals(failed) && isUp(replica)) {
+                clientRequest.setAttribute(UPSTREAM, replica);
+                return replica.webTarget(uri, path.nameEnd, clientRequest.getQueryString());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sends the client's request again, built the same way as the first attempt
+     */
+    private void resend(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, String target) {
+        Request proxyRequest = getHttpClient().newRequest(target)
+            .method(clientRequest.getMethod())
+            .version(HttpVersion.fromString(clientRequest.getProtocol()));
+        copyRequestHeaders(clientRequest, proxyRequest);
+        addProxyHeaders(clientRequest, proxyRequest);
+        proxyRequest.timeout(getTimeout(), TimeUnit.MILLISECONDS);
+        sendProxyRequest(clientRequest, proxyResponse, proxyRequest);
+    }
+
+    /**
+     * A request that did not fit in its runner's queue is sent a 503 like any other request to an overloaded
+     * runner, rather than the 502 a failed request normally gets.
+     */
+    private boolean rejectedByQueue(HttpServletRequest clientRequest, HttpServletResponse proxyResponse, Throwable failure) {
+        if (!(failure instanceof RejectedExecutionException) || proxyResponse.isCommitted()) {
+            return false;
+        }
+        queueRejections.increment();
+        long rejected = queueRejections.sum();
+        if (rejected % OVERLOAD_LOG_INTERVAL == 1) {
+            log.warn("Sent 503 to " + rejected + " requests that did not fit in a runner's queue, such as "
+                + clientRequest.getRequestURI() + ": " + failure.getMessage());
+        }
+        proxyResponse.setHeader("Retry-After", RETRY_AFTER_SECONDS);
+        sendProxyResponseError(clientRequest, proxyResponse, 503);
+        return true;
+    }
+
+    /**
+     * @param runnerFailure Why the runner did not respond, or null if it did or the failure was not its fault
+     */
+    private static void requestFinished(HttpServletRequest clientRequest, Throwable runnerFailure) {
+        Sent sent = (Sent) clientRequest.getAttribute(SENT);
+        if (sent != null && sent.compareAndSet(false, true)) {
+            if (sent.upstream != null) {
+                sent.upstream.requestFinished();
+            }
+            if (sent.runner != null) {
+                sent.runner.requestFinished();
+                sent.runner.concurrencyLimit().release();
+                // a request that did not fit in the runner's queue never reached it, and a client giving up is not
+                // the runner's fault, so neither says anything about how the runner is doing
+                if (!sent.responded && runnerFailure != null && !(runnerFailure instanceof RejectedExecutionException)) {
+                    sent.runner.concurrencyLimit().onFailure();
+                    if (sent.upstream != null) {
+                        sent.upstream.recordFailure();
+                    }
+                    String reason = String.valueOf(runnerFailure.getMessage());
+                    if (sent.runner.circuitBreaker().onFailure(reason)) {
+                        log.warn(sent.runner.id + " is being treated as down after requests to it failed. " + reason);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A request that has been sent to a runner (and, for app requests, to one replica of the app), which is
+     * marked as finished exactly once however the exchange ends. Either can be null, for example if the runner
+     * was removed from the cluster while the request was being routed.
+     */
+    private static class Sent extends AtomicBoolean {
+        final Runner runner;
+        final Upstream upstream;
+        final long nanoTime;
+        volatile boolean responded;
+
+        private Sent(Runner runner, Upstream upstream, long nanoTime) {
+            this.runner = runner;
+            this.upstream = upstream;
+            this.nanoTime = nanoTime;
+        }
+    }
+
+    static void releaseReservation(HttpServletRequest clientRequest) {
+        Runner runner = (Runner) clientRequest.getAttribute(RESERVED_RUNNER);
+        if (runner != null) {
+            clientRequest.removeAttribute(RESERVED_RUNNER);
+            runner.releaseReservation();
         }
     }
 
     private static boolean isAppCreationPost(HttpServletRequest clientRequest) {
-        return clientRequest.getMethod().toUpperCase().equals("POST") && clientRequest.getRequestURI().equals("/api/v1/apps");
+        return RequestPath.isAppCreation(clientRequest.getMethod(), clientRequest.getRequestURI());
     }
 
     private static boolean isAppDeletionPost(HttpServletRequest clientRequest) {
-        String uri = clientRequest.getRequestURI();
-        String prefix = "/api/v1/apps/";
-        return clientRequest.getMethod().toUpperCase().equals("DELETE")
-            && uri.startsWith(prefix) && uri.lastIndexOf('/') == (prefix.length() - 1);
+        return RequestPath.isAppDeletion(clientRequest.getMethod(), clientRequest.getRequestURI());
     }
 
     protected void onProxyRewriteFailed(HttpServletRequest clientRequest, HttpServletResponse proxyResponse) {
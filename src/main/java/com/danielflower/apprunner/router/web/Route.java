@@ -0,0 +1,114 @@
+package com.danielflower.apprunner.router.web;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Where requests for a single app are sent: one {@link Upstream} for each runner that has the app. Which
+ * replica a request goes to is up to the {@link LoadBalancer}.
+ */
+public final class Route {
+    public final String appName;
+    public final List<Upstream> replicas;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+
+    private Route(String appName, List<Upstream> replicas) {
+        this.appName = appName;
+        this.replicas = replicas;
+    }
+
+    /**
+     * @param appName The name of the app
+     * @param url The URL of the app on its runner, e.g. <code>http://runner:8080/app-name</code>
+     */
+    public static Route create(String appName, URI url) {
+        return new Route(appName, Collections.singletonList(new Upstream(url)));
+    }
+
+    /**
+     * @return The replica the app was first found on, which is where app API calls are sent
+     */
+    public Upstream primary() {
+        return replicas.get(0);
+    }
+
+    /**
+     * @return The replica on the given runner, or null if the app is not on that runner
+     */
+    public Upstream replicaOn(String runnerAuthority) {
+        for (Upstream replica : replicas) {
+            if (replica.runnerAuthority.equals(runnerAuthority)) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return A route that also has the given replica, replacing any other replica on the same runner, or this
+     * route if it already had it. Existing replicas are kept as they are so that their statistics carry on.
+     */
+    Route withReplica(Upstream upstream) {
+        List<Upstream> updated = new ArrayList<>(replicas.size() + 1);
+        boolean added = false;
+        for (Upstream replica : replicas) {
+            if (replica.runnerAuthority.equals(upstream.runnerAuthority)) {
+                if (replica.equals(upstream)) {
+                    return this;
+                }
+                updated.add(upstream);
+                added = true;
+            } else {
+                updated.add(replica);
+            }
+        }
+        if (!added) {
+            updated.add(upstream);
+        }
+        return new Route(appName, Collections.unmodifiableList(updated));
+    }
+
+    /**
+     * @return This route without its replica on the given runner, or null if that was the only one
+     */
+    Route withoutReplicaOn(String runnerAuthority) {
+        List<Upstream> updated = new ArrayList<>(replicas.size());
+        for (Upstream replica : replicas) {
+            if (!replica.runnerAuthority.equals(runnerAuthority)) {
+                updated.add(replica);
+            }
+        }
+        if (updated.size() == replicas.size()) {
+            return this;
+        }
+        return updated.isEmpty() ? null : new Route(appName, Collections.unmodifiableList(updated));
+    }
+
+    /**
+     * @return An ever increasing number for taking turns between the replicas
+     */
+    int nextIndex() {
+        return nextIndex.getAndIncrement() & Integer.MAX_VALUE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Route route = (Route) o;
+        return appName.equals(route.appName) && replicas.equals(route.replicas);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * appName.hashCode() + replicas.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return replicas.size() == 1 ? primary().toString() : replicas.toString();
+    }
+}
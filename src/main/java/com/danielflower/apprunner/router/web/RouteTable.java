@@ -0,0 +1,379 @@
+package com.danielflower.apprunner.router.web;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * An immutable, versioned snapshot of every app route. Changes are made by copying a table into a
+ * {@link Builder} and building a new version, so a reader holding a table always sees a consistent view.
+ * <p>
+ * The routes are split by hash into a fixed number of segments, each with its own map and an open-addressed
+ * array so that a route can be looked up by a region of a request URI without first copying the app name out
+ * of it. A new version only copies the segments that changed and shares the rest with the table it was built
+ * from, so changing a few apps costs about a segment's worth of work per app rather than the whole table.
+ * The app names are indexed by runner authority so that per-runner questions only touch the apps on that
+ * runner; that index is copied per change too, but it only has an entry per runner.
+ */
+public final class RouteTable {
+    private static final Logger log = LoggerFactory.getLogger(RouteTable.class);
+    private static final int SEGMENT_BITS = 5;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    static final RouteTable EMPTY = new RouteTable(0, emptySegments(), Collections.emptyMap());
+
+    private final long version;
+    private final Segment[] segments;
+    private final Map<String, Route> routes;
+    private final Map<String, Set<String>> appsByRunner;
+
+    private RouteTable(long version, Segment[] segments, Map<String, Set<String>> appsByRunner) {
+        this.version = version;
+        this.segments = segments;
+        this.appsByRunner = appsByRunner;
+        Map<String, Route>[] maps = newMapArray();
+        for (int i = 0; i < SEGMENTS; i++) {
+            maps[i] = segments[i].routes;
+        }
+        this.routes = new SegmentedMap(maps);
+    }
+
+    private static Segment[] emptySegments() {
+        Segment[] segments = new Segment[SEGMENTS];
+        Arrays.fill(segments, new Segment(Collections.emptyMap()));
+        return segments;
+    }
+
+    /**
+     * @return A number that goes up every time the routes change, and stays the same if they did not.
+     */
+    public long version() {
+        return version;
+    }
+
+    public int size() {
+        return routes.size();
+    }
+
+    public Route get(String appName) {
+        return segments[segmentOf(appName.hashCode())].routes.get(appName);
+    }
+
+    /**
+     * Finds the route for the app whose name is <code>chars[start, end)</code>.
+     */
+    public Route get(CharSequence chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        Segment segment = segments[segmentOf(hash)];
+        Route[] slots = segment.slots;
+        int mask = segment.mask;
+        int length = end - start;
+        for (int i = (spread(hash) >>> SEGMENT_BITS) & mask; ; i = (i + 1) & mask) {
+            Route route = slots[i];
+            if (route == null) {
+                return null;
+            }
+            String name = route.appName;
+            if (name.length() == length && regionEquals(name, chars, start)) {
+                return route;
+            }
+        }
+    }
+
+    /**
+     * @param runnerAuthority The host and port of a runner, e.g. <code>runner:8080</code>
+     * @return The names of the apps routed to that runner
+     */
+    public Set<String> appsOn(String runnerAuthority) {
+        return appsByRunner.getOrDefault(runnerAuthority, Collections.emptySet());
+    }
+
+    public int countOn(String runnerAuthority) {
+        return appsOn(runnerAuthority).size();
+    }
+
+    /**
+     * @return An unmodifiable view of all the routes, keyed by app name.
+     */
+    public Map<String, Route> all() {
+        return routes;
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    private static boolean regionEquals(String name, CharSequence chars, int start) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != chars.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int segmentOf(int hash) {
+        return spread(hash) & (SEGMENTS - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Route>[] newMapArray() {
+        return (Map<String, Route>[]) new Map[SEGMENTS];
+    }
+
+    /**
+     * The routes whose names hash to one segment, and the lookup array for them
+     */
+    private static final class Segment {
+        final Map<String, Route> routes;
+        final Route[] slots;
+        final int mask;
+
+        Segment(Map<String, Route> routes) {
+            this.routes = routes;
+            int capacity = Integer.highestOneBit(Math.max(2, routes.size() * 2 - 1)) << 1;
+            this.slots = new Route[capacity];
+            this.mask = capacity - 1;
+            for (Route route : routes.values()) {
+                int i = (spread(route.appName.hashCode()) >>> SEGMENT_BITS) & mask;
+                while (slots[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = route;
+            }
+        }
+    }
+
+    /**
+     * A read-only map over the segments' maps, which are expected to be unmodifiable themselves
+     */
+    private static final class SegmentedMap extends AbstractMap<String, Route> {
+        private final Map<String, Route>[] maps;
+
+        SegmentedMap(Map<String, Route>[] maps) {
+            this.maps = maps;
+        }
+
+        @Override
+        public Route get(Object key) {
+            return key instanceof String ? maps[segmentOf(key.hashCode())].get(key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && maps[segmentOf(key.hashCode())].containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Map<String, Route> map : maps) {
+                size += map.size();
+            }
+            return size;
+        }
+
+        @Override
+        public Set<Entry<String, Route>> entrySet() {
+            return new AbstractSet<Entry<String, Route>>() {
+                public Iterator<Entry<String, Route>> iterator() {
+                    return new Iterator<Entry<String, Route>>() {
+                        private int segment = 0;
+                        private Iterator<Entry<String, Route>> current = maps[0].entrySet().iterator();
+
+                        public boolean hasNext() {
+                            while (!current.hasNext() && segment < SEGMENTS - 1) {
+                                current = maps[++segment].entrySet().iterator();
+                            }
+                            return current.hasNext();
+                        }
+
+                        public Entry<String, Route> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            return current.next();
+                        }
+                    };
+                }
+
+                public int size() {
+                    return SegmentedMap.this.size();
+                }
+            };
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RouteTable{version=" + version + ", routes=" + routes.size() + '}';
+    }
+
+    public static final class Builder {
+        private final RouteTable base;
+        private final Map<String, Route>[] maps = newMapArray();
+        private final Map<String, Route>[] copiedSegments = newMapArray();
+        private final Map<String, Route> routes = new SegmentedMap(maps);
+        private final Map<String, Set<String>> appsByRunner;
+        private final Set<String> copiedRunners = new HashSet<>();
+        private final Set<String> addedApps = new HashSet<>();
+        private int added;
+        private int changed;
+        private int removed;
+
+        private Builder(RouteTable base) {
+            this.base = base;
+            for (int i = 0; i < SEGMENTS; i++) {
+                maps[i] = base.segments[i].routes;
+            }
+            this.appsByRunner = new HashMap<>(base.appsByRunner);
+        }
+
+        /**
+         * Adds the replicas of the given route to the app, replacing any existing replica on the same runner.
+         * The app's replicas on other runners are kept.
+         */
+        public Builder put(Route route) {
+            Route old = routes.get(route.appName);
+            Route updated = route;
+            if (old != null) {
+                updated = old;
+                for (Upstream replica : route.replicas) {
+                    updated = updated.withReplica(replica);
+                }
+                if (updated == old) {
+                    return this;
+                }
+                changed++;
+                log.debug("{} maps to {} (previously {})", route.appName, updated, old);
+                for (Upstream replica : old.replicas) {
+                    appsOnForUpdate(replica.runnerAuthority).remove(route.appName);
+                }
+            } else {
+                added++;
+                addedApps.add(route.appName);
+                log.debug("{} maps to {}", route.appName, route);
+            }
+            routesForUpdate(route.appName).put(route.appName, updated);
+            for (Upstream replica : updated.replicas) {
+                appsOnForUpdate(replica.runnerAuthority).add(route.appName);
+            }
+            return this;
+        }
+
+        /**
+         * Removes the app from every runner
+         */
+        public Builder remove(String appName) {
+            Route old = routes.containsKey(appName) ? routesForUpdate(appName).remove(appName) : null;
+            if (old != null) {
+                removed++;
+                log.debug("Removed {} mapping to {}", appName, old);
+                for (Upstream replica : old.replicas) {
+                    appsOnForUpdate(replica.runnerAuthority).remove(appName);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Removes the given runner's replicas of the apps that match the predicate, without looking at any other
+         * runner's apps. Apps that are left with no replicas are removed altogether.
+         */
+        public Builder removeFromRunner(String runnerAuthority, Predicate<String> appNamePredicate) {
+            Set<String> current = appsByRunner.get(runnerAuthority);
+            if (current != null) {
+                for (String appName : new ArrayList<>(current)) {
+                    if (appNamePredicate.test(appName)) {
+                        removeReplica(appName, runnerAuthority);
+                    }
+                }
+            }
+            return this;
+        }
+
+        private void removeReplica(String appName, String runnerAuthority) {
+            Route old = routes.get(appName);
+            Route updated = old.withoutReplicaOn(runnerAuthority);
+            if (updated == null) {
+                remove(appName);
+            } else if (updated != old) {
+                changed++;
+                log.debug("{} maps to {} (previously {})", appName, updated, old);
+                routesForUpdate(appName).put(appName, updated);
+                appsOnForUpdate(runnerAuthority).remove(appName);
+            }
+        }
+
+        public Builder removeRunner(String runnerAuthority) {
+            return removeFromRunner(runnerAuthority, appName -> true);
+        }
+
+        /**
+         * @return The routes as they will be once built, which is handy for working out what to change.
+         */
+        public Map<String, Route> routes() {
+            return routes;
+        }
+
+        /**
+         * @return The names of the apps that had no route before these changes
+         */
+        Set<String> addedApps() {
+            return Collections.unmodifiableSet(addedApps);
+        }
+
+        public boolean hasChanges() {
+            return added + changed + removed > 0;
+        }
+
+        RouteTable build() {
+            if (!hasChanges()) {
+                return base;
+            }
+            for (String runnerAuthority : copiedRunners) {
+                Set<String> apps = appsByRunner.get(runnerAuthority);
+                if (apps.isEmpty()) {
+                    appsByRunner.remove(runnerAuthority);
+                } else {
+                    appsByRunner.put(runnerAuthority, Collections.unmodifiableSet(apps));
+                }
+            }
+            Segment[] segments = base.segments.clone();
+            for (int i = 0; i < SEGMENTS; i++) {
+                if (copiedSegments[i] != null) {
+                    segments[i] = new Segment(maps[i]);
+                }
+            }
+            return new RouteTable(base.version + 1, segments, Collections.unmodifiableMap(appsByRunner));
+        }
+
+        String describeChanges() {
+            return added + " added, " + changed + " changed, " + removed + " removed";
+        }
+
+        private Map<String, Route> routesForUpdate(String appName) {
+            int i = segmentOf(appName.hashCode());
+            if (copiedSegments[i] == null) {
+                copiedSegments[i] = new HashMap<>(maps[i]);
+                maps[i] = Collections.unmodifiableMap(copiedSegments[i]);
+            }
+            return copiedSegments[i];
+        }
+
+        private Set<String> appsOnForUpdate(String runnerAuthority) {
+            if (copiedRunners.add(runnerAuthority)) {
+                appsByRunner.put(runnerAuthority, new HashSet<>(appsByRunner.getOrDefault(runnerAuthority, Collections.emptySet())));
+            }
+            return appsByRunner.get(runnerAuthority);
+        }
+    }
+}
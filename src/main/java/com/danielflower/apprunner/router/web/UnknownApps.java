@@ -0,0 +1,95 @@
+package com.danielflower.apprunner.router.web;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers app names that no runner had when last asked, so that repeated requests for them (from scanners
+ * or misconfigured clients, say) can be turned away without asking the runners again.
+ * <p>
+ * Names are forgotten after the TTL, or straight away if a route for them appears. Every name has the same TTL,
+ * so they are kept in the order they were added, which is also the order they expire in: expired names are
+ * dropped from the front as new ones are added, and when full the oldest name makes way for the new one. A flood
+ * of distinct names therefore cannot use unbounded memory, and no add has to look at more than the names it
+ * drops.
+ */
+public class UnknownApps {
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Map<String, Long> expiries;
+    private final LongAdder hits = new LongAdder();
+
+    public UnknownApps(ProxyMap proxyMap, int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+        this.expiries = new LinkedHashMap<String, Long>() {
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+        proxyMap.addListener(this::forgetRouted);
+    }
+
+    /**
+     * @return True if the app was recently found to not exist
+     */
+    public boolean contains(String appName) {
+        synchronized (expiries) {
+            Long expiry = expiries.get(appName);
+            if (expiry == null) {
+                return false;
+            }
+            if (expiry < System.currentTimeMillis()) {
+                expiries.remove(appName);
+                return false;
+            }
+        }
+        hits.increment();
+        return true;
+    }
+
+    public void add(String appName) {
+        if (maxSize <= 0 || ttlMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (expiries) {
+            Iterator<Long> oldest = expiries.values().iterator();
+            while (oldest.hasNext() && oldest.next() < now) {
+                oldest.remove();
+            }
+            // re-adding a name moves it to the back
+            expiries.remove(appName);
+            expiries.put(appName, now + ttlMillis);
+        }
+    }
+
+    void forgetRouted(RouteTable routes, Set<String> addedApps) {
+        synchronized (expiries) {
+            if (expiries.isEmpty()) {
+                return;
+            }
+            if (addedApps.size() <= expiries.size()) {
+                expiries.keySet().removeAll(addedApps);
+            } else {
+                expiries.keySet().removeIf(appName -> routes.get(appName) != null);
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (expiries) {
+            return expiries.size();
+        }
+    }
+
+    /**
+     * @return The number of requests that have been turned away because their app was known to not exist
+     */
+    public long hits() {
+        return hits.sum();
+    }
+}
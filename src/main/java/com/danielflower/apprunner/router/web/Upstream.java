@@ -0,0 +1,129 @@
+package com.danielflower.apprunner.router.web;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One copy of an app on one runner. The target prefixes are rendered once when the upstream is created so
+ * that proxying a request is just a matter of appending the rest of the path and the query.
+ * <p>
+ * An upstream also keeps live numbers about the requests proxied to it, which the {@link LoadBalancer}s use.
+ * The same instance is carried over to each new version of the route table for as long as the app stays on
+ * the runner, so these numbers survive unrelated route changes.
+ */
+public final class Upstream {
+    /** How much a new latency sample moves the average, between 0 and 1 */
+    private static final double EWMA_WEIGHT = 0.2;
+    /** The least latency a request that got no response counts as */
+    private static final double FAILURE_PENALTY_MILLIS = 1000;
+
+    public final String runnerAuthority;
+    public final URI url;
+    private final String webPrefix;
+    private final String apiPrefix;
+    private final LongAdder inFlight = new LongAdder();
+    private volatile double latencyMillis;
+
+    Upstream(URI url) {
+        this.runnerAuthority = url.getAuthority();
+        this.url = url;
+        this.webPrefix = url.toString();
+        this.apiPrefix = url.getScheme() + "://" + runnerAuthority;
+    }
+
+    /**
+     * @param uri The URI of the client request, for example <code>/app-name/some/path</code>
+     * @param remainderStart The index in the URI just after the app name
+     * @param query The query string of the request, or null
+     * @return The app's URL followed by the remainder of the request path and the query string
+     */
+    String webTarget(String uri, int remainderStart, String query) {
+        return append(new StringBuilder(webPrefix.length() + uri.length() - remainderStart + queryLength(query))
+            .append(webPrefix)
+            .append(uri, remainderStart, uri.length()), query);
+    }
+
+    /**
+     * @param uri The URI of the client request, for example <code>/api/v1/apps/app-name</code>
+     * @param query The query string of the request, or null
+     * @return The same request path and query on the app's runner
+     */
+    String apiTarget(String uri, String query) {
+        return append(new StringBuilder(apiPrefix.length() + uri.length() + queryLength(query))
+            .append(apiPrefix)
+            .append(uri), query);
+    }
+
+    private static int queryLength(String query) {
+        return query == null || query.isEmpty() ? 0 : query.length() + 1;
+    }
+
+    private static String append(StringBuilder target, String query) {
+        if (query != null && !query.isEmpty()) {
+            target.append('?').append(query);
+        }
+        return target.toString();
+    }
+
+    void requestStarted() {
+        inFlight.increment();
+    }
+
+    void requestFinished() {
+        inFlight.decrement();
+    }
+
+    /**
+     * Adds the time the upstream took to send its response headers to the moving average. Concurrent updates
+     * can occasionally lose a sample, which makes no practical difference to an average.
+     */
+    void recordLatency(long nanos) {
+        record(nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * Records a request that got no response as a very slow one, so that a replica that refuses connections
+     * doesn't look fast to the {@link LoadBalancer#EWMA} balancer.
+     */
+    void recordFailure() {
+        record(Math.max(FAILURE_PENALTY_MILLIS, latencyMillis * 2));
+    }
+
+    private void record(double sample) {
+        double current = latencyMillis;
+        latencyMillis = current == 0 ? sample : current + EWMA_WEIGHT * (sample - current);
+    }
+
+    /**
+     * @return The number of requests that have been sent to this upstream and not yet finished
+     */
+    public long inFlight() {
+        return inFlight.sum();
+    }
+
+    /**
+     * @return The exponentially weighted moving average of the time to response headers, or 0 if there
+     * have been no responses yet
+     */
+    public double latencyMillis() {
+        return latencyMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return url.equals(((Upstream) o).url);
+    }
+
+    @Override
+    public int hashCode() {
+        return url.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return webPrefix;
+    }
+}
@@ -4,6 +4,7 @@ import com.danielflower.apprunner.router.Config;
 import com.danielflower.apprunner.router.mgmt.Cluster;
 import com.danielflower.apprunner.router.mgmt.MapManager;
 import com.danielflower.apprunner.router.problems.AppRunnerException;
+import com.danielflower.apprunner.router.web.v1.RouterResource;
 import com.danielflower.apprunner.router.web.v1.RunnerResource;
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jetty.proxy.AsyncProxyServlet;
@@ -38,17 +39,27 @@ public class WebServer implements AutoCloseable {
     private Server jettyServer;
     private final String defaultAppName;
     private final RunnerResource runnerResource;
+    private final RouterResource routerResource;
+    private final AppsCallAggregator appsCallAggregator;
+    private final UnknownApps unknownApps;
+    private final LoadBalancer loadBalancer;
+    private final RetryPolicy retryPolicy;
     private final Cluster cluster;
     private final MapManager mapManager;
     private final String accessLogFilename;
 
-    public WebServer(int port, Cluster cluster, MapManager mapManager, ProxyMap proxyMap, String defaultAppName, RunnerResource runnerResource, String accessLogFilename) {
+    public WebServer(int port, Cluster cluster, MapManager mapManager, ProxyMap proxyMap, String defaultAppName, RunnerResource runnerResource, RouterResource routerResource, AppsCallAggregator appsCallAggregator, UnknownApps unknownApps, LoadBalancer loadBalancer, RetryPolicy retryPolicy, String accessLogFilename) {
         this.port = port;
         this.cluster = cluster;
         this.mapManager = mapManager;
         this.proxyMap = proxyMap;
         this.defaultAppName = defaultAppName;
         this.runnerResource = runnerResource;
+        this.routerResource = routerResource;
+        this.appsCallAggregator = appsCallAggregator;
+        this.unknownApps = unknownApps;
+        this.loadBalancer = loadBalancer;
+        this.retryPolicy = retryPolicy;
         this.accessLogFilename = accessLogFilename;
         jettyServer = new Server(port);
     }
@@ -66,7 +77,7 @@ public class WebServer implements AutoCloseable {
     public void start() throws Exception {
         RouterHandlerList handlers = new RouterHandlerList();
         handlers.addHandler(createHomeRedirect());
-        handlers.addHandler(new AppsCallAggregator(mapManager, cluster));
+        handlers.addHandler(appsCallAggregator);
         handlers.addRestServiceHandler(createRestService());
         handlers.addReverseProxyHandler(createReverseProxy(cluster, proxyMap));
         jettyServer.setHandler(handlers);
@@ -94,6 +105,7 @@ public class WebServer implements AutoCloseable {
     private Handler createRestService() {
         ResourceConfig rc = new ResourceConfig();
         rc.register(runnerResource);
+        rc.register(routerResource);
         rc.register(JacksonFeature.class);
         rc.register(CORSFilter.class);
         rc.addProperties(new HashMap<String,Object>() {{
@@ -138,7 +150,7 @@ public class WebServer implements AutoCloseable {
     }
 
     private ServletHandler createReverseProxy(Cluster cluster, ProxyMap proxyMap) {
-        AsyncProxyServlet servlet = new ReverseProxy(cluster, proxyMap, mapManager);
+        AsyncProxyServlet servlet = new ReverseProxy(cluster, proxyMap, mapManager, unknownApps, loadBalancer, retryPolicy);
         ServletHolder proxyServletHolder = new ServletHolder(servlet);
         proxyServletHolder.setAsyncSupported(true);
         proxyServletHolder.setInitParameter("maxThreads", "100");
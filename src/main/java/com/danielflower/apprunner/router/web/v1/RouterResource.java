@@ -0,0 +1,28 @@
+package com.danielflower.apprunner.router.web.v1;
+
+import com.danielflower.apprunner.router.web.AppsCallAggregator;
+import org.json.JSONObject;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+@Path("/router")
+public class RouterResource {
+
+    private final AppsCallAggregator appsCallAggregator;
+
+    public RouterResource(AppsCallAggregator appsCallAggregator) {
+        this.appsCallAggregator = appsCallAggregator;
+    }
+
+    @GET
+    @Path("/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    public String stats() {
+        return new JSONObject()
+            .put("appsAggregator", appsCallAggregator.stats())
+            .toString(4);
+    }
+}
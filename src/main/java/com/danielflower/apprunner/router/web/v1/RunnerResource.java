@@ -1,7 +1,13 @@
 package com.danielflower.apprunner.router.web.v1;
 
+import com.danielflower.apprunner.router.mgmt.AppEvent;
+import com.danielflower.apprunner.router.mgmt.AppEventsOutcome;
 import com.danielflower.apprunner.router.mgmt.Cluster;
 import com.danielflower.apprunner.router.mgmt.Runner;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,6 +19,8 @@ import javax.ws.rs.core.UriInfo;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
@@ -30,7 +38,7 @@ public class RunnerResource {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     public String all(@Context UriInfo uriInfo) {
-        return cluster.toJSON().toString(4);
+        return cluster.toStatusJSON().toString(4);
     }
 
     @GET
@@ -39,7 +47,7 @@ public class RunnerResource {
     public Response getRunner(@Context UriInfo uriInfo, @PathParam("id") String id) {
         Optional<Runner> app = cluster.runner(id);
         if (app.isPresent()) {
-            return Response.ok(app.get().toJSON().toString(4)).build();
+            return Response.ok(app.get().toStatusJSON().toString(4)).build();
         } else {
             return Response.status(Response.Status.NOT_FOUND).build();
         }
@@ -62,7 +70,7 @@ public class RunnerResource {
             return Response.status(400).entity("The max apps value must be at least 1").build();
         }
 
-        Runner runner = new Runner(id, URI.create(url), maxApps);
+        Runner runner = new Runner(id, URI.create(url), maxApps, cluster.runnerLimits());
         log.info("Creating " + runner.toJSON().toString());
 
         try {
@@ -85,6 +93,38 @@ public class RunnerResource {
         }
     }
 
+    /**
+     * Lets a runner, or something watching it, tell the router about apps being created or deleted so that the
+     * routes are updated straight away. The body is an event, or an array of events, such as
+     * <code>{"sequence": 12, "type": "created", "app": "my-app"}</code> where <code>type</code> is
+     * <code>created</code> or <code>deleted</code> and each event has a sequence number one higher than the last.
+     */
+    @POST
+    @Path("/{id}/events")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response events(@Context UriInfo uriInfo, @PathParam("id") String id, String body) {
+        Optional<Runner> runner = cluster.runner(id);
+        if (!runner.isPresent()) {
+            return Response.status(404).entity("Could not find runner with name " + id).build();
+        }
+        List<AppEvent> events = new ArrayList<>();
+        try {
+            Object json = new JSONTokener(body).nextValue();
+            if (json instanceof JSONArray) {
+                for (Object event : (JSONArray) json) {
+                    events.add(AppEvent.fromJSON((JSONObject) event));
+                }
+            } else {
+                events.add(AppEvent.fromJSON((JSONObject) json));
+            }
+        } catch (JSONException | ClassCastException | IllegalArgumentException e) {
+            return Response.status(400).entity("Invalid events: " + e.getMessage()).build();
+        }
+        AppEventsOutcome outcome = cluster.applyEvents(uriInfo.getBaseUri(), runner.get(), events);
+        return Response.ok(outcome.toJSON().toString(4)).build();
+    }
+
     @DELETE
     @Produces(MediaType.APPLICATION_JSON)
     @Path("/{id}")
@@ -0,0 +1,46 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class AppEventTest {
+
+    @Test
+    public void eventsCanBeReadFromJSON() {
+        AppEvent event = AppEvent.fromJSON(new JSONObject("{\"sequence\": 12, \"type\": \"deleted\", \"app\": \"my-app\"}"));
+        assertThat(event.sequence, is(12L));
+        assertThat(event.type, is(AppEvent.Type.DELETED));
+        assertThat(event.appName, is("my-app"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownTypesAreRejected() {
+        AppEvent.fromJSON(new JSONObject("{\"sequence\": 1, \"type\": \"renamed\", \"app\": \"my-app\"}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void eventsWithoutAnAppAreRejected() {
+        AppEvent.fromJSON(new JSONObject("{\"sequence\": 1, \"type\": \"created\"}"));
+    }
+
+    @Test
+    public void appNamesThatAreNotASinglePathSegmentAreRejected() {
+        for (String name : new String[]{"bad name", "a/b", "a?b", "a#b", "..", "a%zz"}) {
+            try {
+                AppEvent.fromJSON(new JSONObject().put("sequence", 1).put("type", "created").put("app", name));
+                fail(name + " should have been rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeSequencesAreRejected() {
+        AppEvent.fromJSON(new JSONObject("{\"sequence\": -3, \"type\": \"created\", \"app\": \"my-app\"}"));
+    }
+}
@@ -0,0 +1,68 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CircuitBreakerTest {
+
+    private final CircuitBreaker breaker = new CircuitBreaker(new RunnerLimits(0, 20, 64, 1024, 3, 50));
+
+    @Test
+    public void theCircuitOpensAfterEnoughFailuresInARow() {
+        assertThat(breaker.onFailure("Connection refused"), is(false));
+        assertThat(breaker.onFailure("Connection refused"), is(false));
+        assertThat(breaker.allowRequest(), is(true));
+        assertThat(breaker.onFailure("Connection refused"), is(true));
+        assertThat(breaker.state(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.allowRequest(), is(false));
+        assertThat(breaker.rejected(), is(1L));
+        assertThat(breaker.toJSON().getString("lastFailure"), is("Connection refused"));
+    }
+
+    @Test
+    public void aResponseResetsTheFailureCount() {
+        breaker.onFailure("Timeout");
+        breaker.onFailure("Timeout");
+        assertThat(breaker.onSuccess(), is(false));
+        breaker.onFailure("Timeout");
+        breaker.onFailure("Timeout");
+        assertThat(breaker.isClosed(), is(true));
+    }
+
+    @Test
+    public void oneTrialRequestIsLetThroughOnceTheCircuitHasBeenOpenForAWhile() throws Exception {
+        breaker.onHealthCheckFailure("Health check returned 500");
+        assertThat(breaker.allowRequest(), is(false));
+        Thread.sleep(60);
+        assertThat(breaker.state(), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat(breaker.allowRequest(), is(true));
+        assertThat(breaker.allowRequest(), is(false));
+
+        assertThat(breaker.onSuccess(), is(true));
+        assertThat(breaker.state(), is(CircuitBreaker.State.CLOSED));
+        assertThat(breaker.allowRequest(), is(true));
+    }
+
+    @Test
+    public void aFailedTrialKeepsTheCircuitOpen() throws Exception {
+        breaker.onHealthCheckFailure("Connection refused");
+        Thread.sleep(60);
+        assertThat(breaker.allowRequest(), is(true));
+        assertThat(breaker.onFailure("Connection refused"), is(false));
+        assertThat(breaker.state(), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.allowRequest(), is(false));
+    }
+
+    @Test
+    public void aThresholdOfZeroNeverOpensTheCircuit() {
+        CircuitBreaker off = new CircuitBreaker(new RunnerLimits(0, 20, 64, 1024, 0, 50));
+        for (int i = 0; i < 100; i++) {
+            off.onFailure("Connection refused");
+        }
+        off.onHealthCheckFailure("Connection refused");
+        assertThat(off.allowRequest(), is(true));
+        assertThat(off.toJSON().getBoolean("enabled"), is(false));
+    }
+}
@@ -0,0 +1,325 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import com.danielflower.apprunner.router.web.ProxyMap;
+import com.danielflower.apprunner.router.web.Route;
+import org.eclipse.jetty.client.HttpClient;
+import org.junit.After;
+import org.junit.Test;
+import scaffolding.FakeRunner;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.fail;
+
+public class ClusterQueryingMapManagerTest {
+
+    private final ProxyMap proxyMap = new ProxyMap();
+    private final HttpClient httpClient = startedClient();
+    private final ClusterQueryingMapManager mapManager = new ClusterQueryingMapManager(proxyMap, httpClient);
+    private final URI forwardedHost = URI.create("http://router.example.org");
+    private FakeRunner one;
+    private FakeRunner two;
+
+    @After
+    public void stop() throws Exception {
+        if (one != null) one.close();
+        if (two != null) two.close();
+        httpClient.stop();
+    }
+
+    @Test
+    public void loadingARunnerReplacesItsRoutes() throws Exception {
+        one = FakeRunner.start("app-a", "app-b");
+        Runner runner = one.toRunner("one", 10);
+
+        mapManager.loadRunner(forwardedHost, runner);
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-a", "app-b"));
+        assertThat(proxyMap.get("app-a").primary().url, is(one.url().resolve("/app-a")));
+
+        one.setApps("app-b", "app-c");
+        mapManager.loadRunner(forwardedHost, runner);
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-b", "app-c"));
+
+        mapManager.removeRunner(runner);
+        assertThat(proxyMap.getAll().isEmpty(), is(true));
+    }
+
+    @Test
+    public void appsOnMoreThanOneRunnerGetAReplicaOnEach() throws Exception {
+        one = FakeRunner.start("app-a", "app-b");
+        two = FakeRunner.start("app-b");
+        Runner runnerOne = one.toRunner("one", 10);
+        Runner runnerTwo = two.toRunner("two", 10);
+        mapManager.loadAllApps(forwardedHost, asList(runnerOne, runnerTwo));
+        assertThat(proxyMap.get("app-a").replicas.size(), is(1));
+        assertThat(proxyMap.get("app-b").replicas.size(), is(2));
+
+        one.setApps("app-a");
+        mapManager.loadRunner(forwardedHost, runnerOne);
+        assertThat(proxyMap.get("app-b").replicas.size(), is(1));
+        assertThat(proxyMap.get("app-b").primary().url, is(two.url().resolve("/app-b")));
+
+        mapManager.removeRunner(runnerTwo);
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-a"));
+    }
+
+    @Test
+    public void unchangedRunnersAreNotParsedAgain() throws Exception {
+        one = FakeRunner.start("app-a", "app-b");
+        one.setETags(true);
+        Runner runner = one.toRunner("one", 10);
+
+        RunnerApps first = mapManager.loadRunner(forwardedHost, runner);
+        long version = proxyMap.version();
+        assertThat(mapManager.loadRunner(forwardedHost, runner), sameInstance(first));
+        assertThat(one.notModifiedResponses(), is(1));
+        assertThat(proxyMap.version(), is(version));
+
+        one.setApps("app-b", "app-c");
+        RunnerApps changed = mapManager.loadRunner(forwardedHost, runner);
+        assertThat(changed.name(1), is("app-c"));
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-b", "app-c"));
+    }
+
+    @Test
+    public void unchangedRunnersStillHaveTheirRoutesCheckedAgainstTheRouteTable() throws Exception {
+        one = FakeRunner.start("app-a", "app-b");
+        one.setETags(true);
+        Runner runner = one.toRunner("one", 10);
+        mapManager.loadRunner(forwardedHost, runner);
+        proxyMap.update(routes -> routes.removeFromRunner(runner.url.getAuthority(), "app-b"::equals));
+
+        mapManager.loadRunner(forwardedHost, runner);
+        assertThat(one.notModifiedResponses(), is(1));
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-a", "app-b"));
+
+        proxyMap.update(routes -> routes.removeFromRunner(runner.url.getAuthority(), "app-a"::equals));
+        one.setETags(false);
+        mapManager.loadRunner(forwardedHost, runner);
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-a", "app-b"));
+    }
+
+    @Test
+    public void theRoutersOwnPollingStillGetsNotModifiedAfterRequestsFromOtherHosts() throws Exception {
+        one = FakeRunner.start("app-a");
+        one.setETags(true);
+        Runner runner = one.toRunner("one", 10);
+        URI routerHost = URI.create("/");
+        mapManager.loadRunner(routerHost, runner);
+        mapManager.loadRunner(URI.create("http://one.example.org"), runner);
+        mapManager.loadRunner(URI.create("http://two.example.org"), runner);
+
+        mapManager.loadRunner(routerHost, runner);
+        assertThat(one.notModifiedResponses(), is(1));
+        mapManager.loadRunner(URI.create("http://two.example.org"), runner);
+        assertThat(one.notModifiedResponses(), is(2));
+    }
+
+    @Test
+    public void identicalBodiesAreNotParsedAgainWhenThereIsNoETag() throws Exception {
+        one = FakeRunner.start("app-a");
+        Runner runner = one.toRunner("one", 10);
+        RunnerApps first = mapManager.loadRunner(forwardedHost, runner);
+        assertThat(mapManager.loadRunner(forwardedHost, runner), sameInstance(first));
+        assertThat(one.notModifiedResponses(), is(0));
+    }
+
+    @Test
+    public void runnersAreLoadedInFullAfterBeingRemoved() throws Exception {
+        one = FakeRunner.start("app-a");
+        one.setETags(true);
+        Runner runner = one.toRunner("one", 10);
+        mapManager.loadRunner(forwardedHost, runner);
+        mapManager.removeRunner(runner);
+        mapManager.loadRunner(forwardedHost, runner);
+        assertThat(one.notModifiedResponses(), is(0));
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-a"));
+    }
+
+    @Test
+    public void pushedEventsAreAppliedStraightAwayAndRepeatsIgnored() throws Exception {
+        one = FakeRunner.start("app-a");
+        Runner runner = one.toRunner("one", 10);
+        mapManager.loadRunner(forwardedHost, runner);
+        int loads = one.appsRequests();
+
+        AppEventsOutcome outcome = mapManager.applyEvents(forwardedHost, runner, asList(
+            new AppEvent(1, AppEvent.Type.CREATED, "app-b"),
+            new AppEvent(2, AppEvent.Type.DELETED, "app-a")));
+        assertThat(outcome.applied, is(2));
+        assertThat(outcome.resyncing, is(false));
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-b"));
+        assertThat(proxyMap.get("app-b").primary().url, is(one.url().resolve("/app-b")));
+
+        outcome = mapManager.applyEvents(forwardedHost, runner, asList(
+            new AppEvent(2, AppEvent.Type.DELETED, "app-a"),
+            new AppEvent(3, AppEvent.Type.CREATED, "app-c")));
+        assertThat(outcome.applied, is(1));
+        assertThat(outcome.ignored, is(1));
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-b", "app-c"));
+        assertThat(one.appsRequests(), is(loads));
+    }
+
+    @Test
+    public void aBatchThatCannotBeAppliedChangesNothingSoItCanBeSentAgain() throws Exception {
+        one = FakeRunner.start("app-a");
+        Runner runner = one.toRunner("one", 10);
+        mapManager.loadRunner(forwardedHost, runner);
+        mapManager.applyEvents(forwardedHost, runner, asList(new AppEvent(1, AppEvent.Type.CREATED, "app-b")));
+
+        try {
+            mapManager.applyEvents(forwardedHost, runner, asList(
+                new AppEvent(2, AppEvent.Type.CREATED, "good"),
+                new AppEvent(3, AppEvent.Type.CREATED, "bad name")));
+            fail("The bad name should not have been accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-a", "app-b"));
+
+        AppEventsOutcome outcome = mapManager.applyEvents(forwardedHost, runner, asList(
+            new AppEvent(2, AppEvent.Type.CREATED, "good"),
+            new AppEvent(3, AppEvent.Type.CREATED, "also-good")));
+        assertThat(outcome.applied, is(2));
+        assertThat(outcome.resyncing, is(false));
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-a", "app-b", "good", "also-good"));
+    }
+
+    @Test
+    public void aGapInTheEventsCausesAFullReload() throws Exception {
+        one = FakeRunner.start("app-a");
+        one.setETags(true);
+        Runner runner = one.toRunner("one", 10);
+        mapManager.loadRunner(forwardedHost, runner);
+        mapManager.applyEvents(forwardedHost, runner, asList(new AppEvent(5, AppEvent.Type.CREATED, "app-b")));
+
+        one.setApps("app-b", "app-c", "app-d");
+        AppEventsOutcome outcome = mapManager.applyEvents(forwardedHost, runner, asList(new AppEvent(8, AppEvent.Type.CREATED, "app-d")));
+        assertThat(outcome.resyncing, is(true));
+
+        long giveUpAt = System.currentTimeMillis() + 5000;
+        while (proxyMap.getAll().containsKey("app-a") && System.currentTimeMillis() < giveUpAt) {
+            Thread.sleep(10);
+        }
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-b", "app-c", "app-d"));
+        assertThat(one.notModifiedResponses(), is(0));
+    }
+
+    @Test
+    public void eventsNumberedFromTheStartAgainMeanTheRunnerRestartedSoItIsReloaded() throws Exception {
+        one = FakeRunner.start("app-a");
+        Runner runner = one.toRunner("one", 10);
+        mapManager.loadRunner(forwardedHost, runner);
+        mapManager.applyEvents(forwardedHost, runner, asList(
+            new AppEvent(41, AppEvent.Type.CREATED, "app-b"),
+            new AppEvent(42, AppEvent.Type.CREATED, "app-c")));
+
+        one.setApps("app-a", "app-d");
+        AppEventsOutcome outcome = mapManager.applyEvents(forwardedHost, runner, asList(new AppEvent(1, AppEvent.Type.CREATED, "app-d")));
+        assertThat(outcome.applied, is(1));
+        assertThat(outcome.resyncing, is(true));
+
+        long giveUpAt = System.currentTimeMillis() + 5000;
+        while (proxyMap.getAll().containsKey("app-b") && System.currentTimeMillis() < giveUpAt) {
+            Thread.sleep(10);
+        }
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-a", "app-d"));
+
+        // numbering carries on from the restart
+        outcome = mapManager.applyEvents(forwardedHost, runner, asList(new AppEvent(2, AppEvent.Type.DELETED, "app-d")));
+        assertThat(outcome.applied, is(1));
+        assertThat(outcome.resyncing, is(false));
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-a"));
+    }
+
+    @Test
+    public void unknownAppsAreLookedUpOnceNoMatterHowManyAsk() throws Exception {
+        one = FakeRunner.start("app-a");
+        two = FakeRunner.start("app-b");
+        two.setDelay(300);
+        List<Runner> runners = asList(one.toRunner("one", 10), two.toRunner("two", 10));
+
+        List<CompletableFuture<Optional<Route>>> lookups = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            lookups.add(mapManager.lookupApp(forwardedHost, "app-b", runners));
+        }
+        for (CompletableFuture<Optional<Route>> lookup : lookups) {
+            assertThat(lookup.get(5, TimeUnit.SECONDS).get().primary().url, is(two.url().resolve("/app-b")));
+        }
+        assertThat(two.appRequests(), is(1));
+        assertThat(two.lastHost(), is("router.example.org"));
+        assertThat(proxyMap.get("app-b").primary().url, is(two.url().resolve("/app-b")));
+
+        assertThat(mapManager.lookupApp(forwardedHost, "app-z", runners).get(5, TimeUnit.SECONDS).isPresent(), is(false));
+        assertThat(mapManager.lookupApp(forwardedHost, "app-z", emptyList()).get(5, TimeUnit.SECONDS).isPresent(), is(false));
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-b"));
+    }
+
+    @Test
+    public void runnersThatSeemToBeDownAreNotAskedForUnknownApps() throws Exception {
+        one = FakeRunner.start("app-a");
+        two = FakeRunner.start("app-b");
+        Runner down = two.toRunner("two", 10);
+        down.circuitBreaker().onHealthCheckFailure("Connection refused");
+        List<Runner> runners = asList(one.toRunner("one", 10), down);
+
+        assertThat(mapManager.lookupApp(forwardedHost, "app-a", runners).get(5, TimeUnit.SECONDS).isPresent(), is(true));
+        try {
+            mapManager.lookupApp(forwardedHost, "app-b", runners).get(5, TimeUnit.SECONDS);
+            fail("A runner that was not asked might have the app");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), is("app-b was not found, but 1 runners that seem to be down were not asked"));
+        }
+        assertThat(two.appRequests(), is(0));
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-a"));
+    }
+
+    @Test
+    public void allRunnersAreQueriedInParallel() throws Exception {
+        one = FakeRunner.start("app-a");
+        two = FakeRunner.start("app-b");
+        one.setDelay(1000);
+        two.setDelay(1000);
+
+        long start = System.currentTimeMillis();
+        List<RunnerApps> results = mapManager.loadAllApps(forwardedHost, asList(one.toRunner("one", 10), two.toRunner("two", 10)));
+        assertThat(System.currentTimeMillis() - start, lessThan(1900L));
+
+        assertThat(results.size(), is(2));
+        assertThat(results.get(0).name(0), is("app-a"));
+        assertThat(results.get(1).name(0), is("app-b"));
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("app-a", "app-b"));
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void aFailingRunnerFailsTheWholeLoadWithoutWaitingForSlowOnes() throws Exception {
+        one = FakeRunner.start("app-a");
+        two = FakeRunner.start("app-b");
+        one.setStatus(500);
+        two.setDelay(TimeUnit.SECONDS.toMillis(30));
+        mapManager.loadAllApps(forwardedHost, asList(one.toRunner("one", 10), two.toRunner("two", 10)));
+    }
+
+    private static HttpClient startedClient() {
+        HttpClient client = new HttpClient();
+        try {
+            client.start();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return client;
+    }
+}
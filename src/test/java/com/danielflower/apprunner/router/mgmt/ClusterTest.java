@@ -10,11 +10,16 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
+import static java.util.Arrays.asList;
 import static org.hamcrest.collection.IsEmptyCollection.empty;
 import static org.junit.Assert.assertThat;
 
@@ -59,15 +64,51 @@ public class ClusterTest {
         assertThat(cluster.runner(instanceOne.id).orElse(null), is(instanceOne));
     }
 
+    @Test
+    public void runnersWithEquallyFewAppsAreChosenByHowBusyTheyAre() throws Exception {
+        Runner instanceThree = new Runner("three", URI.create("http://localhost:7777"), 10);
+        cluster.addRunner(forwardedForHost, instanceTwo);
+        cluster.addRunner(forwardedForHost, instanceThree);
+        instanceTwo.requestStarted();
+        Optional<Runner> allocated = cluster.allocateRunner(new ProxyMap());
+        assertThat(allocated.get(), is(instanceThree));
+        allocated.get().releaseReservation();
+
+        instanceTwo.requestFinished();
+        assertThat(cluster.runnerAt("localhost:7777").get(), is(instanceThree));
+        assertThat(cluster.runnerAt("localhost:1234").isPresent(), is(false));
+    }
+
+    @Test
+    public void runnersThatSeemToBeDownAreNotGivenNewApps() throws Exception {
+        cluster.addRunner(forwardedForHost, instanceOne);
+        cluster.addRunner(forwardedForHost, instanceTwo);
+        instanceOne.circuitBreaker().onHealthCheckFailure("Connection refused");
+        ProxyMap proxyMap = new ProxyMap();
+        proxyMap.add("app", URI.create("http://localhost:9999/app"));
+        Optional<Runner> allocated = cluster.allocateRunner(proxyMap);
+        assertThat(allocated.get(), is(instanceTwo));
+        allocated.get().releaseReservation();
+        assertThat(cluster.toStatusJSON().getJSONArray("runners").getJSONObject(0).getJSONObject("circuit").getString("state"), is("OPEN"));
+    }
+
+    @Test
+    public void inFlightRequestsAreReportedButNotSaved() throws Exception {
+        cluster.addRunner(forwardedForHost, instanceOne);
+        instanceOne.requestStarted();
+        assertThat(cluster.toStatusJSON().getJSONArray("runners").getJSONObject(0).getLong("inFlightRequests"), is(1L));
+        assertThat(cluster.toJSON().getJSONArray("runners").getJSONObject(0).has("inFlightRequests"), is(false));
+    }
+
     @Test
     public void allocatesRunnersBasedOnWhatIsAlreadyLoaded() throws Exception {
         ProxyMap proxyMap = new ProxyMap();
-        assertThat(cluster.allocateRunner(proxyMap.getAll()), equalTo(Optional.empty()));
+        assertThat(cluster.allocateRunner(proxyMap), equalTo(Optional.empty()));
 
         cluster.addRunner(forwardedForHost, instanceOne);
         cluster.addRunner(forwardedForHost, instanceTwo);
         proxyMap.add("blah", instanceOne.url.resolve("/blah/"));
-        assertThat(cluster.allocateRunner(proxyMap.getAll()).get(), is(instanceTwo));
+        assertThat(cluster.allocateRunner(proxyMap).get(), is(instanceTwo));
     }
 
     @Test
@@ -77,10 +118,85 @@ public class ClusterTest {
         cluster.addRunner(forwardedForHost, new Runner("one", URI.create("http://localhost:8081"), 1));
         cluster.addRunner(forwardedForHost, new Runner("two", URI.create("http://localhost:8082"), 2));
 
-        proxyMap.add("blah", cluster.allocateRunner(proxyMap.getAll()).get().url.resolve("/blah"));
-        proxyMap.add("blah2", cluster.allocateRunner(proxyMap.getAll()).get().url.resolve("/blah2"));
-        proxyMap.add("blah3", cluster.allocateRunner(proxyMap.getAll()).get().url.resolve("/blah3"));
-        assertThat(cluster.allocateRunner(proxyMap.getAll()), equalTo(Optional.empty()));
+        create(proxyMap, "blah");
+        create(proxyMap, "blah2");
+        create(proxyMap, "blah3");
+        assertThat(cluster.allocateRunner(proxyMap), equalTo(Optional.empty()));
+    }
+
+    @Test
+    public void pendingCreationsCountTowardsCapacityUntilReleased() throws Exception {
+        ProxyMap proxyMap = new ProxyMap();
+        cluster.addRunner(forwardedForHost, instanceOne);
+
+        Runner first = cluster.allocateRunner(proxyMap).get();
+        Runner second = cluster.allocateRunner(proxyMap).get();
+        assertThat(cluster.allocateRunner(proxyMap), equalTo(Optional.empty()));
+
+        // a failed creation frees up its slot
+        first.releaseReservation();
+        Runner third = cluster.allocateRunner(proxyMap).get();
+        assertThat(cluster.allocateRunner(proxyMap), equalTo(Optional.empty()));
+
+        // a successful one turns its slot into a real app
+        proxyMap.add("blah", second.url.resolve("/blah"));
+        second.releaseReservation();
+        assertThat(cluster.allocateRunner(proxyMap), equalTo(Optional.empty()));
+        third.releaseReservation();
+        assertThat(cluster.allocateRunner(proxyMap).isPresent(), is(true));
+    }
+
+    @Test
+    public void concurrentCreationsNeverOverAllocate() throws Exception {
+        ProxyMap proxyMap = new ProxyMap();
+        List<Runner> runners = asList(
+            new Runner("one", URI.create("http://localhost:8081"), 5),
+            new Runner("two", URI.create("http://localhost:8082"), 10),
+            new Runner("three", URI.create("http://localhost:8083"), 20));
+        context.checking(new Expectations() {{
+            allowing(mapManager).loadRunner(with(any(URI.class)), with(any(Runner.class)));
+        }});
+        for (Runner runner : runners) {
+            cluster.addRunner(forwardedForHost, runner);
+        }
+
+        int attempts = 5000;
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger created = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < attempts; i++) {
+            String name = "app-" + i;
+            boolean creationFails = i % 3 == 0;
+            futures.add(executor.submit(() -> {
+                start.await();
+                Optional<Runner> runner = cluster.allocateRunner(proxyMap);
+                if (runner.isPresent()) {
+                    if (!creationFails) {
+                        proxyMap.add(name, runner.get().url.resolve("/" + name));
+                        created.incrementAndGet();
+                    }
+                    runner.get().releaseReservation();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        assertThat(created.get(), is(35));
+        for (Runner runner : runners) {
+            assertThat(runner.id, proxyMap.snapshot().countOn(runner.url.getAuthority()), is(runner.maxApps));
+        }
+    }
+
+    private void create(ProxyMap proxyMap, String name) {
+        Runner runner = cluster.allocateRunner(proxyMap).get();
+        proxyMap.add(name, runner.url.resolve("/" + name));
+        runner.releaseReservation();
     }
 
-}
\ No newline at end of file
+}
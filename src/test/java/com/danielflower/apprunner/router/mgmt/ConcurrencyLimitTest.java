@@ -0,0 +1,117 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+public class ConcurrencyLimitTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void requestsOverTheLimitAreRejected() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(new RunnerLimits(100, 2));
+        assertThat(limit.tryAcquire(), is(true));
+        assertThat(limit.tryAcquire(), is(true));
+        assertThat(limit.tryAcquire(), is(false));
+        assertThat(limit.rejected(), is(1L));
+        limit.release();
+        assertThat(limit.tryAcquire(), is(true));
+        assertThat(limit.inFlight(), is(2));
+    }
+
+    @Test
+    public void theLimitGrowsWhileLatencyStaysLowAndTheLimitIsInUse() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(new RunnerLimits(30, 10));
+        for (int i = 0; i < 100; i++) {
+            fill(limit);
+            limit.onResponse(FAST);
+            drain(limit);
+        }
+        assertThat(limit.limit(), is(30));
+    }
+
+    @Test
+    public void theLimitDoesNotGrowWhileIdle() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(new RunnerLimits(30, 10));
+        for (int i = 0; i < 100; i++) {
+            limit.onResponse(FAST);
+        }
+        assertThat(limit.limit(), is(10));
+    }
+
+    @Test
+    public void theLimitShrinksWhenLatencyRises() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(new RunnerLimits(100, 50));
+        limit.onResponse(FAST);
+        for (int i = 0; i < 20; i++) {
+            limit.onResponse(SLOW);
+        }
+        assertThat(limit.limit(), is(30));
+    }
+
+    @Test
+    public void aSteadyMixOfFastAndSlowAppsDoesNotShrinkTheLimit() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(new RunnerLimits(100, 50));
+        long veryFast = TimeUnit.MILLISECONDS.toNanos(1);
+        for (int i = 0; i < 2000; i++) {
+            fill(limit);
+            limit.onResponse(i % 3 == 0 ? SLOW : i % 3 == 1 ? FAST : veryFast);
+            drain(limit);
+        }
+        assertThat(limit.limit(), is(100));
+    }
+
+    @Test
+    public void failuresBackOffQuickly() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(new RunnerLimits(100, 50));
+        limit.onFailure();
+        assertThat(limit.limit(), is(45));
+        for (int i = 0; i < 100; i++) {
+            limit.onFailure();
+        }
+        assertThat(limit.limit(), is(1));
+        assertThat(limit.tryAcquire(), is(true));
+    }
+
+    @Test
+    public void aMaxOfZeroLetsEverythingThrough() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(RunnerLimits.DEFAULT);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(limit.tryAcquire(), is(true));
+        }
+        limit.onFailure();
+        assertThat(limit.rejected(), is(0L));
+        assertThat(limit.toJSON().getBoolean("enabled"), is(false));
+    }
+
+    @Test
+    public void statsAreAvailableAsJSON() {
+        ConcurrencyLimit limit = new ConcurrencyLimit(new RunnerLimits(100, 1));
+        limit.tryAcquire();
+        limit.tryAcquire();
+        limit.onResponse(FAST);
+        assertThat(limit.toJSON().getInt("limit"), greaterThan(0));
+        assertThat(limit.toJSON().getLong("rejected"), is(1L));
+        assertThat(limit.toJSON().getLong("latencyMillis"), lessThan(11L));
+        assertThat(limit.toJSON().getLong("baselineLatencyMillis"), lessThan(11L));
+    }
+
+    private static void fill(ConcurrencyLimit limit) {
+        while (limit.tryAcquire()) {
+            // keep going until the limit is reached
+        }
+    }
+
+    private static void drain(ConcurrencyLimit limit) {
+        while (limit.inFlight() > 0) {
+            limit.release();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.jmock.Expectations;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import scaffolding.FakeRunner;
+
+import java.io.File;
+import java.net.URI;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class HealthCheckerTest {
+
+    @Rule public final JUnitRuleMockery context = new JUnitRuleMockery();
+    private final MapManager mapManager = context.mock(MapManager.class);
+    private final HttpClient client = new HttpClient();
+    private FakeRunner fakeRunner;
+    private Runner runner;
+    private HealthChecker healthChecker;
+
+    @Before
+    public void start() throws Exception {
+        context.checking(new Expectations() {{
+            allowing(mapManager).loadRunner(with(any(URI.class)), with(any(Runner.class)));
+        }});
+        client.start();
+        fakeRunner = FakeRunner.start("app");
+        runner = fakeRunner.toRunner("one", 10);
+        Cluster cluster = Cluster.load(new File("target/clusters/" + System.nanoTime() + "/cluster.json"), mapManager);
+        cluster.addRunner(URI.create("http://localhost"), runner);
+        healthChecker = new HealthChecker(cluster, client, 0, 1000);
+    }
+
+    @After
+    public void stop() throws Exception {
+        healthChecker.close();
+        fakeRunner.close();
+    }
+
+    @Test
+    public void failedChecksOpenTheCircuitAndPassedOnesCloseIt() throws Exception {
+        fakeRunner.setStatus(500);
+        healthChecker.check(runner);
+        waitFor(false);
+        assertThat(runner.circuitBreaker().toJSON().getString("lastFailure"), is("Health check returned 500"));
+
+        fakeRunner.setStatus(200);
+        healthChecker.check(runner);
+        waitFor(true);
+    }
+
+    @Test
+    public void runnersThatCannotBeReachedFailTheirChecks() throws Exception {
+        fakeRunner.close();
+        healthChecker.check(runner);
+        waitFor(false);
+    }
+
+    @Test
+    public void runnersThatTakeTooLongFailTheirChecks() throws Exception {
+        fakeRunner.setDelay(3000);
+        healthChecker.check(runner);
+        waitFor(false);
+    }
+
+    private void waitFor(boolean closed) throws InterruptedException {
+        long giveUpAt = System.currentTimeMillis() + 5000;
+        while (runner.circuitBreaker().isClosed() != closed && System.currentTimeMillis() < giveUpAt) {
+            Thread.sleep(5);
+        }
+        assertThat(runner.circuitBreaker().isClosed(), is(closed));
+    }
+}
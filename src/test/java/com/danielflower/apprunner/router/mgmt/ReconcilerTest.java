@@ -0,0 +1,78 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import com.danielflower.apprunner.router.web.ProxyMap;
+import org.eclipse.jetty.client.HttpClient;
+import org.junit.After;
+import org.junit.Test;
+import scaffolding.FakeRunner;
+
+import java.io.File;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+
+public class ReconcilerTest {
+
+    private final ProxyMap proxyMap = new ProxyMap();
+    private final HttpClient httpClient = new HttpClient();
+    private final ClusterQueryingMapManager mapManager = new ClusterQueryingMapManager(proxyMap, httpClient);
+    private final File configFile = new File("target/clusters/" + System.nanoTime() + "/cluster.json");
+    private FakeRunner runner;
+    private Reconciler reconciler;
+
+    @After
+    public void stop() throws Exception {
+        if (reconciler != null) reconciler.close();
+        if (runner != null) runner.close();
+        httpClient.stop();
+    }
+
+    @Test
+    public void appsChangedDirectlyOnARunnerArePickedUp() throws Exception {
+        httpClient.start();
+        runner = FakeRunner.start("app-a", "app-b");
+        Cluster cluster = Cluster.load(configFile, mapManager);
+        cluster.addRunner(URI.create("http://localhost"), runner.toRunner("one", 10));
+        reconciler = new Reconciler(cluster, mapManager, 50, 20);
+        reconciler.start();
+
+        runner.setApps("app-b", "app-c");
+        waitForRoutes("app-b", "app-c");
+        long version = proxyMap.version();
+
+        int requests = runner.appsRequests();
+        while (runner.appsRequests() < requests + 3) {
+            Thread.sleep(10);
+        }
+        assertThat("nothing changed so no new route tables were made", proxyMap.version(), is(version));
+    }
+
+    @Test
+    public void nothingHappensWhenTheIntervalIsZero() throws Exception {
+        httpClient.start();
+        runner = FakeRunner.start("app-a");
+        Cluster cluster = Cluster.load(configFile, mapManager);
+        cluster.addRunner(URI.create("http://localhost"), runner.toRunner("one", 10));
+        reconciler = new Reconciler(cluster, mapManager, 0, 0);
+        reconciler.start();
+
+        int requests = runner.appsRequests();
+        Thread.sleep(200);
+        assertThat(runner.appsRequests(), is(requests));
+    }
+
+    private void waitForRoutes(String... names) throws InterruptedException {
+        long giveUpAt = System.currentTimeMillis() + 5000;
+        Set<String> current = proxyMap.getAll().keySet();
+        while (!current.equals(new HashSet<>(asList(names))) && System.currentTimeMillis() < giveUpAt) {
+            Thread.sleep(10);
+            current = proxyMap.getAll().keySet();
+        }
+        assertThat(current, containsInAnyOrder(names));
+    }
+}
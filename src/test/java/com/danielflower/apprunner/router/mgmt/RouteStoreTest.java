@@ -0,0 +1,74 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import com.danielflower.apprunner.router.web.ProxyMap;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Collections;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+
+public class RouteStoreTest {
+
+    private final File file = new File("target/routes/" + System.nanoTime() + "/routes.json");
+    private final Runner one = new Runner("one", URI.create("http://one.example.org:8080"), 10);
+    private final Runner two = new Runner("two", URI.create("http://two.example.org:8080"), 10);
+
+    @Test
+    public void routesCanBeSavedAndLoadedAgain() throws Exception {
+        file.getParentFile().mkdirs();
+        ProxyMap original = new ProxyMap();
+        original.add("app-a", URI.create("http://one.example.org:8080/app-a"));
+        original.add("app-b", URI.create("http://two.example.org:8080/app-b"));
+        original.add("app-b", URI.create("http://one.example.org:8080/app-b"));
+        new RouteStore(file, original).close();
+
+        ProxyMap restored = new ProxyMap();
+        assertThat(new RouteStore(file, restored).load(asList(one, two)), is(3));
+        assertThat(restored.getAll(), is(original.getAll()));
+    }
+
+    @Test
+    public void routesToRunnersThatHaveGoneAreNotLoaded() throws Exception {
+        file.getParentFile().mkdirs();
+        ProxyMap original = new ProxyMap();
+        original.add("app-a", URI.create("http://one.example.org:8080/app-a"));
+        original.add("app-b", URI.create("http://two.example.org:8080/app-b"));
+        new RouteStore(file, original).save();
+
+        ProxyMap restored = new ProxyMap();
+        assertThat(new RouteStore(file, restored).load(asList(one)), is(1));
+        assertThat(restored.getAll().keySet(), containsInAnyOrder("app-a"));
+    }
+
+    @Test
+    public void missingOrBrokenFilesAreIgnored() throws Exception {
+        ProxyMap proxyMap = new ProxyMap();
+        assertThat(new RouteStore(file, proxyMap).load(asList(one)), is(-1));
+
+        FileUtils.write(file, "{\"routes\": {\"app-a\": ", "UTF-8");
+        assertThat(new RouteStore(file, proxyMap).load(asList(one)), is(-1));
+        assertThat(proxyMap.getAll().isEmpty(), is(true));
+    }
+
+    @Test
+    public void unchangedRoutesAreNotWrittenAgain() throws Exception {
+        file.getParentFile().mkdirs();
+        ProxyMap proxyMap = new ProxyMap();
+        proxyMap.add("app-a", URI.create("http://one.example.org:8080/app-a"));
+        RouteStore store = new RouteStore(file, proxyMap);
+        store.save();
+        FileUtils.write(file, "{}", "UTF-8");
+        store.save();
+        assertThat(FileUtils.readFileToString(file, "UTF-8"), is("{}"));
+
+        proxyMap.remove("app-a");
+        store.save();
+        assertThat(new RouteStore(file, new ProxyMap()).load(Collections.singletonList(one)), is(0));
+    }
+}
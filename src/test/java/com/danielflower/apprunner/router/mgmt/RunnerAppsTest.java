@@ -0,0 +1,84 @@
+package com.danielflower.apprunner.router.mgmt;
+
+import com.danielflower.apprunner.router.problems.AppRunnerException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RunnerAppsTest {
+
+    @Test
+    public void appsAreSortedByNameAndWrittenAsTheRunnerSentThem() throws IOException {
+        RunnerApps apps = parse("{ \"appCount\": 3, \"apps\": [\n" +
+            "  { \"url\": \"http://x/zeta\", \"name\": \"zeta\", \"tags\": [ { \"name\": \"ignored\" } ] },\n" +
+            "  { \"name\": \"éclair\" },\n" +
+            "  { \"name\": \"alpha\", \"nested\": { \"name\": \"ignored\" } }\n" +
+            "], \"trailing\": { \"apps\": 1 } }");
+        assertThat(apps.size(), is(3));
+        assertThat(apps.name(0), is("alpha"));
+        assertThat(apps.name(1), is("zeta"));
+        assertThat(apps.name(2), is("éclair"));
+        assertThat(write(apps, 0), is("{ \"name\": \"alpha\", \"nested\": { \"name\": \"ignored\" } }"));
+        assertThat(write(apps, 1), is("{ \"url\": \"http://x/zeta\", \"name\": \"zeta\", \"tags\": [ { \"name\": \"ignored\" } ] }"));
+        assertThat(write(apps, 2), is("{ \"name\": \"éclair\" }"));
+    }
+
+    @Test
+    public void theFirstAppFromANameCanBeFound() {
+        RunnerApps apps = parse("{\"apps\":[{\"name\":\"b\"},{\"name\":\"d\"},{\"name\":\"f\"}]}");
+        assertThat(apps.firstIndexFrom(""), is(0));
+        assertThat(apps.firstIndexFrom("b"), is(0));
+        assertThat(apps.firstIndexFrom("c"), is(1));
+        assertThat(apps.firstIndexFrom("d\u0000"), is(2));
+        assertThat(apps.firstIndexFrom("g"), is(3));
+    }
+
+    @Test
+    public void onlyTheRequestedPropertiesAreProjected() throws IOException {
+        RunnerApps apps = parse("{\"apps\":[{\"name\":\"a\",\"url\":\"http://x/a\",\"contributors\":[{\"name\":\"x\"}]}]}");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = new JsonFactory().createGenerator(out)) {
+            apps.writeFields(0, new HashSet<>(asList("name", "contributors")), generator);
+        }
+        assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8), is("{\"name\":\"a\",\"contributors\":[{\"name\":\"x\"}]}"));
+    }
+
+    @Test
+    public void anEmptyListIsFine() {
+        assertThat(parse("{\"apps\":[]}").size(), is(0));
+    }
+
+    @Test(expected = AppRunnerException.class)
+    public void responsesWithoutAnAppsArrayAreRejected() {
+        parse("{\"message\":\"oops\"}");
+    }
+
+    @Test(expected = AppRunnerException.class)
+    public void appsWithoutNamesAreRejected() {
+        parse("{\"apps\":[{\"url\":\"http://x/\"}]}");
+    }
+
+    @Test(expected = AppRunnerException.class)
+    public void invalidJsonIsRejected() {
+        parse("{\"apps\":[{\"name\":");
+    }
+
+    private static RunnerApps parse(String json) {
+        return RunnerApps.parse(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String write(RunnerApps apps, int index) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        apps.writeApp(index, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
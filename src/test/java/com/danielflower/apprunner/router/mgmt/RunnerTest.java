@@ -8,6 +8,7 @@ import org.skyscreamer.jsonassert.JSONCompareMode;
 import java.net.URI;
 
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertThat;
 
 public class RunnerTest {
@@ -26,4 +27,16 @@ public class RunnerTest {
     public void runnersCanBeRoundTripped() {
         assertThat(Runner.fromJSON(runner.toJSON()), equalTo(runner));
     }
+
+    @Test
+    public void limitsCanBeOverriddenPerRunnerAndAreSavedAsTheyWereGiven() {
+        JSONObject json = runner.toJSON().put("limits", new JSONObject().put("maxConnections", 4));
+        Runner limited = Runner.fromJSON(json, new RunnerLimits(100, 10, 64, 1000));
+        assertThat(limited.limits().maxConnections, is(4));
+        assertThat(limited.limits().maxQueuedRequests, is(1000));
+        assertThat(limited.limits().maxConcurrency, is(100));
+        assertThat(limited.toJSON().getJSONObject("limits").keySet().size(), is(1));
+        assertThat(limited.toStatusJSON().getJSONObject("limits").getInt("maxQueuedRequests"), is(1000));
+        assertThat(Runner.fromJSON(runner.toJSON()).toJSON().has("limits"), is(false));
+    }
 }
@@ -0,0 +1,280 @@
+package com.danielflower.apprunner.router.web;
+
+import com.danielflower.apprunner.router.mgmt.Cluster;
+import com.danielflower.apprunner.router.mgmt.ClusterQueryingMapManager;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+import org.skyscreamer.jsonassert.JSONAssert;
+import org.skyscreamer.jsonassert.JSONCompareMode;
+import scaffolding.FakeRunner;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
+
+public class AppsCallAggregatorTest {
+
+    private final ProxyMap proxyMap = new ProxyMap();
+    private final HttpClient client = new HttpClient();
+    private final ClusterQueryingMapManager mapManager = new ClusterQueryingMapManager(proxyMap, client);
+    private final File configFile = new File("target/clusters/" + System.nanoTime() + "/cluster.json");
+    private Server server;
+    private AppsCallAggregator aggregator;
+    private Cluster cluster;
+    private FakeRunner healthy;
+    private FakeRunner sick;
+
+    @After
+    public void stop() throws Exception {
+        if (server != null) server.stop();
+        if (healthy != null) healthy.close();
+        if (sick != null) sick.close();
+        client.stop();
+    }
+
+    @Test
+    public void appsFromAllRunnersAreMergedAndSortedByName() throws Exception {
+        start(false);
+        ContentResponse response = client.GET(routerUrl());
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.getHeaders().get(AppsCallAggregator.PARTIAL_HEADER), is(nullValue()));
+        JSONAssert.assertEquals("{ apps: [ { name: 'a' }, { name: 'b' }, { name: 'c' }, { name: 'd' } ] }",
+            response.getContentAsString(), JSONCompareMode.STRICT_ORDER);
+    }
+
+    @Test
+    public void withoutPartialResultsOneBadRunnerFailsTheRequest() throws Exception {
+        start(false);
+        sick.setStatus(500);
+        assertThat(client.GET(routerUrl()).getStatus(), is(502));
+    }
+
+    @Test
+    public void partialResultsIncludeWhateverRunnersAnsweredInTime() throws Exception {
+        start(true);
+        sick.setDelay(10000);
+        long start = System.currentTimeMillis();
+        ContentResponse response = client.GET(routerUrl());
+        assertThat(System.currentTimeMillis() - start, lessThan(5000L));
+
+        assertThat(response.getStatus(), is(200));
+        assertThat(response.getHeaders().get(AppsCallAggregator.PARTIAL_HEADER), is("true"));
+        JSONObject json = new JSONObject(response.getContentAsString());
+        JSONAssert.assertEquals("{ apps: [ { name: 'a' }, { name: 'c' } ], degraded: [ { id: 'sick', url: '" + sick.url() + "' } ] }",
+            json, JSONCompareMode.STRICT_ORDER);
+    }
+
+    @Test
+    public void partialResultsFailIfNoRunnersAnswer() throws Exception {
+        start(true);
+        healthy.setStatus(500);
+        sick.setStatus(500);
+        assertThat(client.GET(routerUrl()).getStatus(), is(502));
+    }
+
+    @Test
+    public void runnersThatSeemToBeDownAreListedAsDegradedWithoutBeingAsked() throws Exception {
+        start(true);
+        cluster.runner("sick").get().circuitBreaker().onHealthCheckFailure("Connection refused");
+        int before = sick.appsRequests();
+        ContentResponse response = client.GET(routerUrl());
+        assertThat(response.getStatus(), is(200));
+        JSONAssert.assertEquals("{ apps: [ { name: 'a' }, { name: 'c' } ], degraded: [ { id: 'sick' } ] }",
+            response.getContentAsString(), JSONCompareMode.STRICT_ORDER);
+        assertThat(sick.appsRequests(), is(before));
+    }
+
+    @Test
+    public void withoutPartialResultsARunnerThatSeemsToBeDownIsLeftOutWithoutBeingAsked() throws Exception {
+        start(false, 60000);
+        cluster.runner("sick").get().circuitBreaker().onHealthCheckFailure("Connection refused");
+        sick.setDelay(10000);
+        int before = sick.appsRequests();
+        long start = System.currentTimeMillis();
+        ContentResponse response = client.GET(routerUrl());
+        assertThat(System.currentTimeMillis() - start, lessThan(5000L));
+        assertThat(response.getStatus(), is(200));
+        JSONAssert.assertEquals("{ apps: [ { name: 'a' }, { name: 'c' } ] }",
+            response.getContentAsString(), JSONCompareMode.STRICT_ORDER);
+        assertThat(sick.appsRequests(), is(before));
+
+        // the listing without the sick runner is not cached, so its apps are back as soon as it recovers
+        sick.setDelay(0);
+        cluster.runner("sick").get().circuitBreaker().onSuccess();
+        JSONAssert.assertEquals("{ apps: [ { name: 'a' }, { name: 'b' }, { name: 'c' }, { name: 'd' } ] }",
+            client.GET(routerUrl()).getContentAsString(), JSONCompareMode.STRICT_ORDER);
+    }
+
+    @Test
+    public void withoutPartialResultsTheRequestFailsIfEveryRunnerSeemsToBeDown() throws Exception {
+        start(false);
+        cluster.runner("healthy").get().circuitBreaker().onHealthCheckFailure("Connection refused");
+        cluster.runner("sick").get().circuitBreaker().onHealthCheckFailure("Connection refused");
+        assertThat(client.GET(routerUrl()).getStatus(), is(502));
+    }
+
+    @Test
+    public void cachedResponsesAreServedWithoutAskingTheRunners() throws Exception {
+        start(false, 60000);
+        int before = healthy.appsRequests();
+        ContentResponse first = client.GET(routerUrl());
+        ContentResponse second = client.GET(routerUrl());
+        assertThat(second.getContentAsString(), is(first.getContentAsString()));
+        assertThat(second.getHeaders().get("ETag"), is(first.getHeaders().get("ETag")));
+        assertThat(healthy.appsRequests() - before, is(1));
+        assertThat(aggregator.cacheHits(), is(1L));
+        assertThat(aggregator.cacheMisses(), is(1L));
+    }
+
+    @Test
+    public void matchingETagsGetNotModified() throws Exception {
+        start(false, 60000);
+        String etag = client.GET(routerUrl()).getHeaders().get("ETag");
+        assertThat(etag.startsWith("\""), is(true));
+
+        ContentResponse notModified = client.newRequest(routerUrl()).header("If-None-Match", "\"other\", " + etag).send();
+        assertThat(notModified.getStatus(), is(304));
+        assertThat(notModified.getContent().length, is(0));
+
+        ContentResponse modified = client.newRequest(routerUrl()).header("If-None-Match", "\"other\"").send();
+        assertThat(modified.getStatus(), is(200));
+    }
+
+    @Test
+    public void routeChangesInvalidateTheCache() throws Exception {
+        start(false, 60000);
+        client.GET(routerUrl());
+        healthy.setApps("a", "c", "e");
+        proxyMap.add("e", URI.create(healthy.url() + "/e"));
+        JSONAssert.assertEquals("{ apps: [ { name: 'a' }, { name: 'b' }, { name: 'c' }, { name: 'd' }, { name: 'e' } ] }",
+            client.GET(routerUrl()).getContentAsString(), JSONCompareMode.STRICT_ORDER);
+        assertThat(aggregator.cacheMisses(), is(2L));
+    }
+
+    @Test
+    public void partialResponsesAreNotCached() throws Exception {
+        start(true, 60000);
+        sick.setStatus(500);
+        int before = healthy.appsRequests();
+        client.GET(routerUrl());
+        client.GET(routerUrl());
+        assertThat(healthy.appsRequests() - before, is(2));
+        assertThat(aggregator.cacheHits(), is(0L));
+    }
+
+    @Test
+    public void concurrentRequestsShareOneQueryOfTheRunners() throws Exception {
+        start(false);
+        healthy.setDelay(500);
+        int before = healthy.appsRequests();
+        int callers = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<ContentResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                responses.add(executor.submit(() -> client.GET(routerUrl())));
+            }
+            for (Future<ContentResponse> response : responses) {
+                JSONAssert.assertEquals("{ apps: [ { name: 'a' }, { name: 'b' }, { name: 'c' }, { name: 'd' } ] }",
+                    response.get().getContentAsString(), JSONCompareMode.STRICT_ORDER);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertThat(healthy.appsRequests() - before, is(1));
+        assertThat(aggregator.coalesced(), is((long) callers - 1));
+    }
+
+    @Test
+    public void pagesCanBeRequestedWithALimitAndCursor() throws Exception {
+        start(false, 60000);
+        JSONObject first = new JSONObject(client.GET(routerUrl() + "?limit=3").getContentAsString());
+        JSONAssert.assertEquals("{ apps: [ { name: 'a' }, { name: 'b' }, { name: 'c' } ] }", first, JSONCompareMode.STRICT_ORDER);
+
+        JSONObject second = new JSONObject(client.GET(routerUrl() + "?limit=3&cursor=" + first.getString("nextCursor")).getContentAsString());
+        JSONAssert.assertEquals("{ apps: [ { name: 'd' } ] }", second, JSONCompareMode.STRICT_ORDER);
+        assertThat(second.has("nextCursor"), is(false));
+        assertThat(healthy.appsRequests(), is(2));
+    }
+
+    @Test
+    public void pagesThatEndPartWayThroughTheCopiesOfAnAppCarryOnFromTheNextCopy() throws Exception {
+        healthy = FakeRunner.start("a", "b", "c");
+        sick = FakeRunner.start("b", "d");
+        start(false, 60000);
+        JSONObject first = new JSONObject(client.GET(routerUrl() + "?limit=2").getContentAsString());
+        JSONAssert.assertEquals("{ apps: [ { name: 'a' }, { name: 'b' } ] }", first, JSONCompareMode.STRICT_ORDER);
+
+        JSONObject second = new JSONObject(client.GET(routerUrl() + "?limit=2&cursor=" + first.getString("nextCursor")).getContentAsString());
+        JSONAssert.assertEquals("{ apps: [ { name: 'b' }, { name: 'c' } ] }", second, JSONCompareMode.STRICT_ORDER);
+
+        JSONObject third = new JSONObject(client.GET(routerUrl() + "?limit=2&cursor=" + second.getString("nextCursor")).getContentAsString());
+        JSONAssert.assertEquals("{ apps: [ { name: 'd' } ] }", third, JSONCompareMode.STRICT_ORDER);
+        assertThat(third.has("nextCursor"), is(false));
+    }
+
+    @Test
+    public void appsCanBeFilteredByNamePrefixAndProjected() throws Exception {
+        healthy = FakeRunner.start("app-c", "other", "app-a");
+        sick = FakeRunner.start("app-b", "zzz");
+        start(false);
+        ContentResponse response = client.GET(routerUrl() + "?prefix=app-&fields=name");
+        JSONAssert.assertEquals("{ apps: [ { name: 'app-a' }, { name: 'app-b' }, { name: 'app-c' } ] }",
+            response.getContentAsString(), JSONCompareMode.STRICT_ORDER);
+    }
+
+    @Test
+    public void differentQueriesHaveDifferentETags() throws Exception {
+        start(false, 60000);
+        String all = client.GET(routerUrl()).getHeaders().get("ETag");
+        String page = client.GET(routerUrl() + "?limit=1").getHeaders().get("ETag");
+        assertThat(page.equals(all), is(false));
+        assertThat(client.newRequest(routerUrl() + "?limit=1").header("If-None-Match", page).send().getStatus(), is(304));
+    }
+
+    @Test
+    public void invalidQueriesAreRejectedWithoutAskingTheRunners() throws Exception {
+        start(false);
+        int before = healthy.appsRequests();
+        assertThat(client.GET(routerUrl() + "?limit=0").getStatus(), is(400));
+        assertThat(client.GET(routerUrl() + "?limit=ten").getStatus(), is(400));
+        assertThat(client.GET(routerUrl() + "?cursor=not*base64").getStatus(), is(400));
+        assertThat(healthy.appsRequests(), is(before));
+    }
+
+    private void start(boolean partialResults) throws Exception {
+        start(partialResults, 0);
+    }
+
+    private void start(boolean partialResults, long cacheTtlMillis) throws Exception {
+        client.start();
+        if (healthy == null) healthy = FakeRunner.start("c", "a");
+        if (sick == null) sick = FakeRunner.start("d", "b");
+        cluster = Cluster.load(configFile, mapManager);
+        cluster.addRunner(URI.create("http://localhost"), healthy.toRunner("healthy", 10));
+        cluster.addRunner(URI.create("http://localhost"), sick.toRunner("sick", 10));
+
+        server = new Server(0);
+        aggregator = new AppsCallAggregator(mapManager, cluster, proxyMap, partialResults, 1000, cacheTtlMillis);
+        server.setHandler(aggregator);
+        server.start();
+    }
+
+    private String routerUrl() {
+        return "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + "/api/v1/apps";
+    }
+}
@@ -0,0 +1,127 @@
+package com.danielflower.apprunner.router.web;
+
+import com.danielflower.apprunner.router.problems.InvalidConfigException;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LoadBalancerTest {
+
+    private final ProxyMap proxyMap = new ProxyMap();
+    private final Route route;
+    private final Upstream one;
+    private final Upstream two;
+    private final Upstream three;
+
+    public LoadBalancerTest() {
+        proxyMap.add("my-app", URI.create("http://localhost:1000/my-app"));
+        proxyMap.add("my-app", URI.create("http://localhost:2000/my-app"));
+        proxyMap.add("my-app", URI.create("http://localhost:3000/my-app"));
+        route = proxyMap.get("my-app");
+        one = route.replicaOn("localhost:1000");
+        two = route.replicaOn("localhost:2000");
+        three = route.replicaOn("localhost:3000");
+    }
+
+    @Test
+    public void roundRobinTakesTurns() {
+        Map<Upstream, Integer> counts = choose(LoadBalancer.ROUND_ROBIN, 300);
+        assertThat(counts.get(one), is(100));
+        assertThat(counts.get(two), is(100));
+        assertThat(counts.get(three), is(100));
+    }
+
+    @Test
+    public void leastRequestsPicksTheLeastBusyReplicaAndTakesTurnsOnTies() {
+        one.requestStarted();
+        Map<Upstream, Integer> counts = choose(LoadBalancer.LEAST_REQUESTS, 300);
+        assertThat(counts.containsKey(one), is(false));
+        assertThat(counts.get(two) + counts.get(three), is(300));
+        assertThat(counts.get(three) >= 100, is(true));
+    }
+
+    @Test
+    public void powerOfTwoNeverPicksTheBusiestReplica() {
+        for (int i = 0; i < 5; i++) {
+            one.requestStarted();
+            two.requestStarted();
+        }
+        one.requestStarted();
+        Map<Upstream, Integer> counts = choose(LoadBalancer.POWER_OF_TWO, 300);
+        assertThat(counts.containsKey(one), is(false));
+        assertThat(counts.get(three) > counts.getOrDefault(two, 0), is(true));
+    }
+
+    @Test
+    public void ewmaPrefersTheFastestReplicaAndTriesNewOnes() {
+        one.recordLatency(TimeUnit.MILLISECONDS.toNanos(100));
+        two.recordLatency(TimeUnit.MILLISECONDS.toNanos(10));
+        assertThat(LoadBalancer.EWMA.choose(route), sameInstance(two));
+
+        for (int i = 0; i < 10; i++) {
+            two.requestStarted();
+        }
+        // three has not answered yet so counts as the mean of the others
+        assertThat(LoadBalancer.EWMA.choose(route), sameInstance(three));
+
+        three.recordLatency(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(LoadBalancer.EWMA.choose(route), sameInstance(three));
+    }
+
+    @Test
+    public void ewmaDoesNotSendEverythingToAReplicaThatHasNotAnsweredYet() {
+        one.recordLatency(TimeUnit.MILLISECONDS.toNanos(10));
+        two.recordLatency(TimeUnit.MILLISECONDS.toNanos(20));
+        for (int i = 0; i < 5; i++) {
+            three.requestStarted();
+        }
+        Map<Upstream, Integer> counts = choose(LoadBalancer.EWMA, 100);
+        assertThat(counts.containsKey(three), is(false));
+    }
+
+    @Test
+    public void ewmaAvoidsReplicasThatFail() {
+        one.recordLatency(TimeUnit.MILLISECONDS.toNanos(10));
+        two.recordLatency(TimeUnit.MILLISECONDS.toNanos(20));
+        three.recordLatency(TimeUnit.MILLISECONDS.toNanos(5));
+        three.recordFailure();
+        assertThat(three.latencyMillis() > 20, is(true));
+        assertThat(LoadBalancer.EWMA.choose(route), sameInstance(one));
+    }
+
+    @Test
+    public void singleReplicasAreAlwaysChosen() {
+        Route single = Route.create("other", URI.create("http://localhost:1000/other"));
+        for (LoadBalancer balancer : LoadBalancer.values()) {
+            assertThat(balancer.choose(single), sameInstance(single.primary()));
+        }
+    }
+
+    @Test
+    public void balancersCanBeChosenByName() {
+        assertThat(LoadBalancer.fromConfig("round-robin"), is(LoadBalancer.ROUND_ROBIN));
+        assertThat(LoadBalancer.fromConfig("least-requests"), is(LoadBalancer.LEAST_REQUESTS));
+        assertThat(LoadBalancer.fromConfig("power-of-two"), is(LoadBalancer.POWER_OF_TWO));
+        assertThat(LoadBalancer.fromConfig("EWMA"), is(LoadBalancer.EWMA));
+    }
+
+    @Test(expected = InvalidConfigException.class)
+    public void unknownBalancersAreRejected() {
+        LoadBalancer.fromConfig("random");
+    }
+
+    private Map<Upstream, Integer> choose(LoadBalancer balancer, int times) {
+        Map<Upstream, Integer> counts = new HashMap<>();
+        for (int i = 0; i < times; i++) {
+            counts.merge(balancer.choose(route), 1, Integer::sum);
+        }
+        return counts;
+    }
+}
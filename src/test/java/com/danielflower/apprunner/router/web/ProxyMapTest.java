@@ -0,0 +1,146 @@
+package com.danielflower.apprunner.router.web;
+
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+
+public class ProxyMapTest {
+
+    private final ProxyMap proxyMap = new ProxyMap();
+
+    @Test
+    public void routesCanBeLookedUpByARegionOfTheRequestURI() {
+        proxyMap.add("my-app", URI.create("http://localhost:12345/my-app"));
+        proxyMap.add("my-app-2", URI.create("http://localhost:12345/my-app-2"));
+        assertThat(proxyMap.get("/my-app/blah", 1, 7).appName, is("my-app"));
+        assertThat(proxyMap.get("/api/v1/apps/my-app-2/deploy", 13, 21).appName, is("my-app-2"));
+        assertThat(proxyMap.get("/my-ap/blah", 1, 6), is(nullValue()));
+        assertThat(proxyMap.get("/my-app-22", 1, 10), is(nullValue()));
+    }
+
+    @Test
+    public void theVersionOnlyChangesWhenTheRoutesDo() {
+        assertThat(proxyMap.version(), is(0L));
+        proxyMap.add("my-app", URI.create("http://localhost:12345/my-app"));
+        assertThat(proxyMap.version(), is(1L));
+        proxyMap.add("my-app", URI.create("http://localhost:12345/my-app"));
+        assertThat(proxyMap.version(), is(1L));
+        proxyMap.add("my-app", URI.create("http://localhost:54321/my-app"));
+        assertThat(proxyMap.version(), is(2L));
+        proxyMap.remove("not-there");
+        assertThat(proxyMap.version(), is(2L));
+        proxyMap.remove("my-app");
+        assertThat(proxyMap.version(), is(3L));
+    }
+
+    @Test
+    public void bulkUpdatesArePublishedAsOneVersionAndOldSnapshotsAreUnaffected() {
+        proxyMap.add("one", URI.create("http://localhost:1000/one"));
+        RouteTable before = proxyMap.snapshot();
+
+        RouteTable after = proxyMap.update(routes -> routes
+            .put(Route.create("two", URI.create("http://localhost:1000/two")))
+            .put(Route.create("three", URI.create("http://localhost:1000/three")))
+            .remove("one"));
+
+        assertThat(after, sameInstance(proxyMap.snapshot()));
+        assertThat(after.version(), is(before.version() + 1));
+        assertThat(after.size(), is(2));
+        assertThat(after.get("one"), is(nullValue()));
+        assertThat(before.size(), is(1));
+        assertThat(before.get("one").appName, is("one"));
+        assertThat(before.get("two"), is(nullValue()));
+    }
+
+    @Test
+    public void manyRoutesCanBeFound() {
+        proxyMap.update(routes -> {
+            for (int i = 0; i < 5000; i++) {
+                routes.put(Route.create("app-" + i, URI.create("http://localhost:1000/app-" + i)));
+            }
+        });
+        for (int i = 0; i < 5000; i++) {
+            String uri = "/app-" + i + "/";
+            assertThat(proxyMap.get(uri, 1, uri.length() - 1).appName, is("app-" + i));
+        }
+    }
+
+    @Test
+    public void changingAFewRoutesLeavesTheRestAsTheyWere() {
+        proxyMap.update(routes -> {
+            for (int i = 0; i < 1000; i++) {
+                routes.put(Route.create("app-" + i, URI.create("http://localhost:1000/app-" + i)));
+            }
+        });
+        RouteTable before = proxyMap.snapshot();
+        RouteTable after = proxyMap.update(routes -> routes
+            .remove("app-10")
+            .put(Route.create("app-1000", URI.create("http://localhost:1000/app-1000"))));
+
+        assertThat(after.size(), is(1000));
+        assertThat(after.all().containsKey("app-10"), is(false));
+        assertThat(after.all().keySet().size(), is(1000));
+        assertThat(before.get("app-10").appName, is("app-10"));
+        assertThat(before.get("app-1000"), is(nullValue()));
+        for (int i = 0; i <= 1000; i++) {
+            String uri = "/app-" + i + "/";
+            Route route = after.get(uri, 1, uri.length() - 1);
+            if (i == 10) {
+                assertThat(route, is(nullValue()));
+            } else {
+                assertThat(route, sameInstance(i == 1000 ? after.get("app-1000") : before.get("app-" + i)));
+            }
+        }
+    }
+
+    @Test
+    public void appsOnMoreThanOneRunnerHaveAReplicaOnEach() {
+        proxyMap.add("my-app", URI.create("http://localhost:1000/my-app"));
+        Upstream first = proxyMap.get("my-app").primary();
+        proxyMap.add("my-app", URI.create("http://localhost:2000/my-app"));
+        proxyMap.add("my-app", URI.create("http://localhost:2000/my-app"));
+        assertThat(proxyMap.version(), is(2L));
+
+        Route route = proxyMap.get("my-app");
+        assertThat(route.replicas.size(), is(2));
+        assertThat(route.primary(), sameInstance(first));
+        assertThat(route.replicaOn("localhost:2000").url, is(URI.create("http://localhost:2000/my-app")));
+
+        proxyMap.update(routes -> routes.removeFromRunner("localhost:1000", name -> true));
+        assertThat(proxyMap.get("my-app").replicas.size(), is(1));
+        assertThat(proxyMap.get("my-app").primary().runnerAuthority, is("localhost:2000"));
+
+        proxyMap.update(routes -> routes.removeFromRunner("localhost:2000", name -> true));
+        assertThat(proxyMap.get("my-app"), is(nullValue()));
+    }
+
+    @Test
+    public void appsAreIndexedByRunner() {
+        proxyMap.add("one", URI.create("http://localhost:1000/one"));
+        proxyMap.add("two", URI.create("http://localhost:1000/two"));
+        proxyMap.add("three", URI.create("http://localhost:2000/three"));
+        RouteTable before = proxyMap.snapshot();
+        assertThat(before.appsOn("localhost:1000"), containsInAnyOrder("one", "two"));
+        assertThat(before.countOn("localhost:2000"), is(1));
+        assertThat(before.countOn("localhost:3000"), is(0));
+
+        proxyMap.add("two", URI.create("http://localhost:2000/two"));
+        assertThat(proxyMap.snapshot().appsOn("localhost:1000"), containsInAnyOrder("one", "two"));
+        assertThat(proxyMap.snapshot().appsOn("localhost:2000"), containsInAnyOrder("two", "three"));
+        assertThat(before.appsOn("localhost:2000"), containsInAnyOrder("three"));
+
+        proxyMap.update(routes -> routes.removeFromRunner("localhost:2000", name -> name.startsWith("t")));
+        assertThat(proxyMap.snapshot().countOn("localhost:2000"), is(0));
+        assertThat(proxyMap.getAll().keySet(), containsInAnyOrder("one", "two"));
+
+        proxyMap.update(routes -> routes.removeRunner("localhost:1000"));
+        assertThat(proxyMap.getAll().isEmpty(), is(true));
+        assertThat(proxyMap.snapshot().appsOn("localhost:1000").isEmpty(), is(true));
+    }
+}
@@ -0,0 +1,86 @@
+package com.danielflower.apprunner.router.web;
+
+import org.junit.Test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.danielflower.apprunner.router.web.RequestPath.Kind.*;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RequestPathTest {
+
+    // The patterns that were used for routing before RequestPath existed
+    private static final Pattern APP_WEB_REQUEST = Pattern.compile("/([^/?]+)(.*)");
+    private static final Pattern APP_API_REQUEST = Pattern.compile("/api/v1/apps/([^/?]+)(.*)");
+
+    @Test
+    public void webRequestsAreForTheAppNamedInTheFirstSegment() {
+        RequestPath path = RequestPath.parse("GET", "/my-app/some/thing");
+        assertThat(path.kind, is(APP_WEB));
+        assertThat(path.appName(), is("my-app"));
+        assertThat(path.uri.substring(path.nameEnd), is("/some/thing"));
+
+        assertThat(RequestPath.parse("GET", "/my-app").appName(), is("my-app"));
+        assertThat(RequestPath.parse("GET", "/my-app/").appName(), is("my-app"));
+        assertThat(RequestPath.parse("GET", "/").kind, is(UNKNOWN));
+        assertThat(RequestPath.parse("GET", "//blah").kind, is(UNKNOWN));
+    }
+
+    @Test
+    public void appApiRequestsAreForTheAppNamedAfterTheAppsPath() {
+        RequestPath path = RequestPath.parse("POST", "/api/v1/apps/my-app/deploy");
+        assertThat(path.kind, is(APP_API));
+        assertThat(path.appName(), is("my-app"));
+
+        assertThat(RequestPath.parse("GET", "/api/v1/apps/my-app").kind, is(APP_API));
+        assertThat(RequestPath.parse("GET", "/api/v1/apps/").kind, is(UNKNOWN));
+        assertThat(RequestPath.parse("GET", "/api/v1/appsy/my-app").kind, is(UNKNOWN));
+        assertThat(RequestPath.parse("GET", "/api/v1/apps").kind, is(UNKNOWN));
+        assertThat(RequestPath.parse("GET", "/api/v2/apps/my-app").kind, is(UNKNOWN));
+    }
+
+    @Test
+    public void creationAndDeletionAreDetectedCaseInsensitively() {
+        assertThat(RequestPath.parse("post", "/api/v1/apps").kind, is(APP_CREATION));
+        assertThat(RequestPath.parse("POST", "/api/v1/apps/").kind, is(UNKNOWN));
+
+        RequestPath deletion = RequestPath.parse("Delete", "/api/v1/apps/my-app");
+        assertThat(deletion.kind, is(APP_DELETION));
+        assertThat(deletion.appName(), is("my-app"));
+        assertThat(RequestPath.parse("DELETE", "/api/v1/apps/my-app/logs").kind, is(APP_API));
+        assertThat(RequestPath.isAppDeletion("DELETE", "/api/v1/apps/my-app"), is(true));
+        assertThat(RequestPath.isAppDeletion("GET", "/api/v1/apps/my-app"), is(false));
+    }
+
+    @Test
+    public void systemCallsAreNotForAnyApp() {
+        assertThat(RequestPath.parse("GET", "/api/v1/swagger.json").kind, is(SYSTEM));
+        assertThat(RequestPath.parse("GET", "/api/v1/system").kind, is(SYSTEM));
+        assertThat(RequestPath.parse("GET", "/api/v1/system/samples/maven.zip").kind, is(SYSTEM));
+        assertThat(RequestPath.parse("GET", "/api/v1/swagger.json").isApp(), is(false));
+    }
+
+    @Test
+    public void givesTheSameAnswersAsTheOldRegularExpressions() {
+        String[] uris = {
+            "/a", "/my-app", "/my-app/", "/my-app/some/thing", "/my-app?x", "/my-app/a\nb", "/my\napp/b",
+            "/api/v1/apps/my-app", "/api/v1/apps/my-app/", "/api/v1/apps/my-app/deploy", "/api/v1/apps/x?y/z",
+            "/api/v1/apps/my-app/a b", "/api/v1/apps//deploy", "/api", "/api/", "/apix/y", "/", "",
+            "/api/v1/apps/%20x/y", "/über/ß"
+        };
+        for (String uri : uris) {
+            RequestPath path = RequestPath.parse("GET", uri);
+            Pattern pattern = uri.startsWith("/api/") ? APP_API_REQUEST : APP_WEB_REQUEST;
+            Matcher matcher = pattern.matcher(uri);
+            if (matcher.matches()) {
+                assertThat(uri, path.isApp(), is(true));
+                assertThat(uri, path.appName(), is(matcher.group(1)));
+                assertThat(uri, uri.substring(path.nameEnd), is(matcher.group(2)));
+            } else {
+                assertThat(uri, path.isApp(), is(false));
+            }
+        }
+    }
+}
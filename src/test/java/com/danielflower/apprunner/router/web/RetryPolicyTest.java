@@ -0,0 +1,63 @@
+package com.danielflower.apprunner.router.web;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void aFewRetriesAreSavedUpToStartWith() {
+        RetryPolicy policy = new RetryPolicy(10, 50);
+        for (int i = 0; i < 10; i++) {
+            assertThat(policy.tryRetry(), is(true));
+        }
+        assertThat(policy.tryRetry(), is(false));
+        assertThat(policy.retried(), is(10L));
+        assertThat(policy.refused(), is(1L));
+    }
+
+    @Test
+    public void retriesCanBeAtMostThePercentageOfRequests() {
+        RetryPolicy policy = new RetryPolicy(10, 50);
+        while (policy.tryRetry()) {
+            // use up the saved retries
+        }
+        int retried = 0;
+        for (int i = 0; i < 1000; i++) {
+            policy.onRequest();
+            if (policy.tryRetry()) {
+                retried++;
+            }
+        }
+        assertThat(retried, is(100));
+    }
+
+    @Test
+    public void quietPeriodsOnlySaveUpAFewRetries() {
+        RetryPolicy policy = new RetryPolicy(50, 50);
+        for (int i = 0; i < 10000; i++) {
+            policy.onRequest();
+        }
+        int retried = 0;
+        while (policy.tryRetry()) {
+            retried++;
+        }
+        assertThat(retried, is(10));
+    }
+
+    @Test
+    public void zeroPercentMeansNoRetries() {
+        assertThat(RetryPolicy.NONE.isEnabled(), is(false));
+        RetryPolicy.NONE.onRequest();
+        assertThat(RetryPolicy.NONE.tryRetry(), is(false));
+    }
+
+    @Test
+    public void theBackoffGrowsWithEachRetry() {
+        RetryPolicy policy = new RetryPolicy(10, 50);
+        assertThat(policy.backoffMillis(0), is(50L));
+        assertThat(policy.backoffMillis(1), is(100L));
+    }
+}
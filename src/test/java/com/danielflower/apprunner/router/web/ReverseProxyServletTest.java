@@ -0,0 +1,338 @@
+package com.danielflower.apprunner.router.web;
+
+import com.danielflower.apprunner.router.mgmt.Cluster;
+import com.danielflower.apprunner.router.mgmt.ClusterQueryingMapManager;
+import com.danielflower.apprunner.router.mgmt.Runner;
+import com.danielflower.apprunner.router.mgmt.RunnerLimits;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.ContentResponse;
+import org.eclipse.jetty.client.util.StringContentProvider;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scaffolding.FakeRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+public class ReverseProxyServletTest {
+
+    private final ProxyMap proxyMap = new ProxyMap();
+    private final HttpClient client = new HttpClient();
+    private final ClusterQueryingMapManager mapManager = new ClusterQueryingMapManager(proxyMap, client);
+    private final UnknownApps unknownApps = new UnknownApps(proxyMap, 100, 60000);
+    private final File configFile = new File("target/clusters/" + System.nanoTime() + "/cluster.json");
+    private Server server;
+    private FakeRunner runner;
+    private Cluster cluster;
+
+    @Before
+    public void start() throws Exception {
+        client.start();
+        runner = FakeRunner.start("existing");
+        cluster = Cluster.load(configFile, mapManager);
+        cluster.addRunner(URI.create("http://localhost"), runner.toRunner("one", 10));
+        startRouter(RetryPolicy.NONE);
+    }
+
+    private void startRouter(RetryPolicy retryPolicy) throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+        server = new Server(0);
+        ServletHolder holder = new ServletHolder(new ReverseProxy(cluster, proxyMap, mapManager, unknownApps, LoadBalancer.ROUND_ROBIN, retryPolicy));
+        holder.setAsyncSupported(true);
+        holder.setInitParameter("maxThreads", "10");
+        ServletHandler handler = new ServletHandler();
+        handler.addServletWithMapping(holder, "/*");
+        server.setHandler(handler);
+        server.start();
+    }
+
+    @After
+    public void stop() throws Exception {
+        server.stop();
+        runner.close();
+        client.stop();
+    }
+
+    @Test
+    public void appsCreatedBehindTheRoutersBackAreFoundWithOneLookup() throws Exception {
+        runner.setApps("existing", "brand-new");
+        runner.setDelay(300);
+
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        try {
+            List<Future<ContentResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                responses.add(executor.submit(() -> client.GET(routerUrl("/brand-new/"))));
+            }
+            for (Future<ContentResponse> response : responses) {
+                assertThat(response.get().getStatus(), is(200));
+                assertThat(response.get().getContentAsString(), is("Hello from brand-new"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(runner.appRequests(), is(1));
+        assertThat(proxyMap.get("brand-new").primary().url, is(runner.url().resolve("/brand-new")));
+    }
+
+    @Test
+    public void appsNoRunnerHasAreStillNotFound() throws Exception {
+        ContentResponse response = client.GET(routerUrl("/never-existed/"));
+        assertThat(response.getStatus(), is(404));
+        assertThat(runner.appRequests(), is(1));
+    }
+
+    @Test
+    public void appsThatWereNotFoundAreNotLookedUpAgainUntilTheyHaveARoute() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            ContentResponse response = client.GET(routerUrl("/never-existed/"));
+            assertThat(response.getStatus(), is(404));
+            assertThat(response.getContentAsString(), is("404 Not Found"));
+        }
+        assertThat(runner.appRequests(), is(1));
+        assertThat(unknownApps.hits(), is(4L));
+
+        runner.setApps("existing", "never-existed");
+        proxyMap.add("never-existed", runner.url().resolve("/never-existed"));
+        assertThat(unknownApps.contains("never-existed"), is(false));
+        assertThat(client.GET(routerUrl("/never-existed/")).getStatus(), is(200));
+    }
+
+    @Test
+    public void knownAppsAreProxiedWithoutALookup() throws Exception {
+        ContentResponse response = client.GET(routerUrl("/existing/"));
+        assertThat(response.getStatus(), is(200));
+        assertThat(runner.appRequests(), is(0));
+    }
+
+    @Test
+    public void requestsInFlightAreCountedPerRunnerAndPerReplica() throws Exception {
+        runner.setDelay(500);
+        Runner target = cluster.runner("one").get();
+        Upstream replica = proxyMap.get("existing").primary();
+        Future<ContentResponse> response = Executors.newSingleThreadExecutor().submit(() -> client.GET(routerUrl("/existing/")));
+
+        long giveUpAt = System.currentTimeMillis() + 5000;
+        while (target.inFlightRequests() == 0 && System.currentTimeMillis() < giveUpAt) {
+            Thread.sleep(5);
+        }
+        assertThat(target.inFlightRequests(), is(1L));
+        assertThat(replica.inFlight(), is(1L));
+
+        assertThat(response.get().getStatus(), is(200));
+        giveUpAt = System.currentTimeMillis() + 5000;
+        while (target.inFlightRequests() > 0 && System.currentTimeMillis() < giveUpAt) {
+            Thread.sleep(5);
+        }
+        assertThat(target.inFlightRequests(), is(0L));
+        assertThat(replica.inFlight(), is(0L));
+        assertThat(replica.latencyMillis() >= 400, is(true));
+    }
+
+    @Test
+    public void aCreatedAppWithNoLocationStillHasItsSlotReleased() throws Exception {
+        Runner target = cluster.runner("one").get();
+        runner.setStatus(201);
+        ContentResponse response = client.POST(routerUrl("/api/v1/apps"))
+            .content(new StringContentProvider("gitUrl=http://example.org/new-app.git"), "application/x-www-form-urlencoded")
+            .send();
+        assertThat(response.getStatus(), is(201));
+        assertThat(target.appsIncludingReservations(0), is(0));
+        assertThat(proxyMap.getAll().keySet(), contains("existing"));
+    }
+
+    @Test
+    public void concurrentCreationsThroughTheRouterNeverPutMoreAppsOnARunnerThanItsMax() throws Exception {
+        Runner withLocations = cluster.runner("one").get();
+        try (FakeRunner other = FakeRunner.start()) {
+            other.setLocations(false);
+            Runner withoutLocations = other.toRunner("two", 2);
+            cluster.addRunner(URI.create("http://localhost"), withoutLocations);
+            cluster.deleteRunner(withLocations);
+            withLocations = runner.toRunner("one", 3);
+            cluster.addRunner(URI.create("http://localhost"), withLocations);
+            // holds every creation open at once, so no slot is freed up before all the runners have been picked
+            runner.setDelay(500);
+            other.setDelay(500);
+
+            int attempts = 10;
+            ExecutorService executor = Executors.newFixedThreadPool(attempts);
+            try {
+                List<Future<ContentResponse>> responses = new ArrayList<>();
+                for (int i = 0; i < attempts; i++) {
+                    String name = "app-" + i;
+                    responses.add(executor.submit(() -> client.POST(routerUrl("/api/v1/apps"))
+                        .content(new StringContentProvider("appName=" + name + "&gitUrl=http://example.org/" + name + ".git"), "application/x-www-form-urlencoded")
+                        .send()));
+                }
+                int created = 0;
+                for (Future<ContentResponse> response : responses) {
+                    if (response.get().getStatus() == 201) {
+                        created++;
+                    }
+                }
+                // "one" already hosts "existing" so has 2 free slots, and "two" has 2
+                assertThat(created, is(4));
+            } finally {
+                executor.shutdownNow();
+            }
+
+            assertThat(runner.apps().size(), is(3));
+            assertThat(other.apps().size(), is(2));
+            assertThat(withLocations.appsIncludingReservations(0), is(0));
+            assertThat(withoutLocations.appsIncludingReservations(0), is(0));
+            assertThat(proxyMap.getAll().keySet(), containsInAnyOrder(runner.apps().toArray()));
+        }
+    }
+
+    @Test
+    public void requestsOverARunnersConcurrencyLimitAreTurnedAway() throws Exception {
+        Runner limited = new Runner("one", runner.url(), 10, new RunnerLimits(1, 1));
+        cluster.deleteRunner(cluster.runner("one").get());
+        cluster.addRunner(URI.create("http://localhost"), limited);
+        runner.setDelay(500);
+        Future<ContentResponse> slow = Executors.newSingleThreadExecutor().submit(() -> client.GET(routerUrl("/existing/")));
+        long giveUpAt = System.currentTimeMillis() + 5000;
+        while (limited.inFlightRequests() == 0 && System.currentTimeMillis() < giveUpAt) {
+            Thread.sleep(5);
+        }
+
+        ContentResponse rejected = client.GET(routerUrl("/existing/"));
+        assertThat(rejected.getStatus(), is(503));
+        assertThat(rejected.getHeaders().get("Retry-After"), is("1"));
+        assertThat(slow.get().getStatus(), is(200));
+        assertThat(limited.toStatusJSON().getJSONObject("concurrency").getLong("rejected"), is(1L));
+    }
+
+    @Test
+    public void aSlowRunnerOnlyUsesUpItsOwnConnectionsAndQueue() throws Exception {
+        Runner limited = new Runner("one", runner.url(), 10, new RunnerLimits(100, 20, 1, 1));
+        cluster.deleteRunner(cluster.runner("one").get());
+        cluster.addRunner(URI.create("http://localhost"), limited);
+        try (FakeRunner other = FakeRunner.start("other")) {
+            cluster.addRunner(URI.create("http://localhost"), other.toRunner("two", 10));
+            // opens the runner's only connection, so that later requests don't wait in the queue while it connects
+            assertThat(client.GET(routerUrl("/existing/")).getStatus(), is(200));
+            runner.setDelay(1000);
+
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                // one request uses the only connection and the other waits in the queue
+                List<Future<ContentResponse>> slow = new ArrayList<>();
+                for (int i = 1; i <= 2; i++) {
+                    slow.add(executor.submit(() -> client.GET(routerUrl("/existing/"))));
+                    long giveUpAt = System.currentTimeMillis() + 5000;
+                    while (limited.inFlightRequests() < i && System.currentTimeMillis() < giveUpAt) {
+                        Thread.sleep(5);
+                    }
+                    Thread.sleep(50);
+                }
+
+                ContentResponse rejected = client.GET(routerUrl("/existing/"));
+                assertThat(rejected.getStatus(), is(503));
+                assertThat(rejected.getHeaders().get("Retry-After"), is("1"));
+                // the runner never saw the rejected request, so it is not a reason to send it less
+                assertThat(limited.concurrencyLimit().limit(), is(20));
+                assertThat(limited.circuitBreaker().isClosed(), is(true));
+
+                ContentResponse unaffected = client.GET(routerUrl("/other/"));
+                assertThat(unaffected.getStatus(), is(200));
+                assertThat(slow.get(1).isDone(), is(false));
+
+                for (Future<ContentResponse> response : slow) {
+                    assertThat(response.get().getStatus(), is(200));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void requestsToARunnerThatSeemsToBeDownFailFast() throws Exception {
+        Runner target = cluster.runner("one").get();
+        target.circuitBreaker().onHealthCheckFailure("Connection refused");
+        runner.setDelay(5000);
+
+        long start = System.currentTimeMillis();
+        ContentResponse response = client.GET(routerUrl("/existing/"));
+        assertThat(response.getStatus(), is(503));
+        assertThat(response.getHeaders().get("Retry-After"), is("1"));
+        assertThat(System.currentTimeMillis() - start < 4000, is(true));
+        assertThat(target.circuitBreaker().rejected(), is(1L));
+    }
+
+    @Test
+    public void aRunnerThatStopsRespondingIsTreatedAsDown() throws Exception {
+        Runner target = cluster.runner("one").get();
+        runner.close();
+        for (int i = 0; i < RunnerLimits.DEFAULT_CIRCUIT_FAILURE_THRESHOLD; i++) {
+            assertThat(client.GET(routerUrl("/existing/")).getStatus(), is(502));
+        }
+        assertThat(target.circuitBreaker().isClosed(), is(false));
+        assertThat(client.GET(routerUrl("/existing/")).getStatus(), is(503));
+    }
+
+    @Test
+    public void webRequestsThatCannotConnectAreRetriedOnAnotherReplica() throws Exception {
+        RetryPolicy retryPolicy = new RetryPolicy(10, 10);
+        startRouter(retryPolicy);
+        proxyMap.add("existing", URI.create("http://localhost:" + unusedPort() + "/existing"));
+        for (int i = 0; i < 4; i++) {
+            ContentResponse response = client.GET(routerUrl("/existing/"));
+            assertThat(response.getStatus(), is(200));
+            assertThat(response.getContentAsString(), is("Hello from existing"));
+        }
+        assertThat(retryPolicy.retried(), is(2L));
+    }
+
+    @Test
+    public void requestsAreRetriedOnTheSameRunnerIfThereIsNoOtherReplica() throws Exception {
+        RetryPolicy retryPolicy = new RetryPolicy(10, 10);
+        startRouter(retryPolicy);
+        proxyMap.add("gone", URI.create("http://localhost:" + unusedPort() + "/gone"));
+        assertThat(client.GET(routerUrl("/gone/")).getStatus(), is(502));
+        assertThat(retryPolicy.retried(), is((long) RetryPolicy.MAX_RETRIES_PER_REQUEST));
+    }
+
+    @Test
+    public void requestsThatMightChangeSomethingAreNotRetried() throws Exception {
+        RetryPolicy retryPolicy = new RetryPolicy(10, 10);
+        startRouter(retryPolicy);
+        proxyMap.add("gone", URI.create("http://localhost:" + unusedPort() + "/gone"));
+        assertThat(client.POST(routerUrl("/gone/")).send().getStatus(), is(502));
+        assertThat(client.newRequest(routerUrl("/gone/")).method("PUT")
+            .content(new StringContentProvider("body")).send().getStatus(), greaterThanOrEqualTo(500));
+        assertThat(retryPolicy.retried(), is(0L));
+    }
+
+    private static int unusedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private String routerUrl(String path) {
+        return "http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort() + path;
+    }
+}
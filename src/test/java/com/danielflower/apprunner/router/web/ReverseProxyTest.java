@@ -2,6 +2,8 @@ package com.danielflower.apprunner.router.web;
 
 import com.danielflower.apprunner.router.mgmt.Cluster;
 import com.danielflower.apprunner.router.mgmt.MapManager;
+import com.danielflower.apprunner.router.mgmt.Runner;
+import org.jmock.Expectations;
 import org.jmock.integration.junit4.JUnitRuleMockery;
 import org.junit.Rule;
 import org.junit.Test;
@@ -34,7 +36,7 @@ public class ReverseProxyTest {
     private ProxyMap proxyMap = new ProxyMap();
     private File configFile = new File("target/clusters/" + System.currentTimeMillis() + "/cluster.json");
     private Cluster cluster = Cluster.load(configFile, mapManager);
-    private ReverseProxy reverseProxy = new ReverseProxy(cluster, proxyMap, mapManager);
+    private ReverseProxy reverseProxy = new ReverseProxy(cluster, proxyMap, mapManager, new UnknownApps(proxyMap, 100, 10000), LoadBalancer.ROUND_ROBIN, RetryPolicy.NONE);
 
     public ReverseProxyTest() throws IOException, InterruptedException {
     }
@@ -60,7 +62,49 @@ public class ReverseProxyTest {
         assertThat(reverseProxy.rewriteTarget(request("/my-app/some/thing?blah=ha")), is("http://localhost:12345/my-app/some/thing?blah=ha"));
     }
 
+    @Test
+    public void appApiCallsAreProxiedToTheRunnerHostingTheApp() throws Exception {
+        proxyMap.add("my-app", URI.create("http://localhost:12345/my-app"));
+        assertThat(reverseProxy.rewriteTarget(request("POST", "/api/v1/apps/my-app/deploy")), is("http://localhost:12345/api/v1/apps/my-app/deploy"));
+        assertThat(reverseProxy.rewriteTarget(request("GET", "/api/v1/apps/my-app?x=y")), is("http://localhost:12345/api/v1/apps/my-app?x=y"));
+        assertThat(reverseProxy.rewriteTarget(request("DELETE", "/api/v1/apps/my-app")), is("http://localhost:12345/api/v1/apps/my-app"));
+        assertThat(reverseProxy.rewriteTarget(request("GET", "/api/v1/apps/other-app")), is(nullValue()));
+    }
+
+    @Test
+    public void webRequestsAreSpreadOverReplicasButAPICallsAllGoToTheFirst() throws Exception {
+        proxyMap.add("my-app", URI.create("http://localhost:12345/my-app"));
+        proxyMap.add("my-app", URI.create("http://localhost:54321/my-app"));
+        assertThat(reverseProxy.rewriteTarget(request("/my-app/a")), is("http://localhost:12345/my-app/a"));
+        assertThat(reverseProxy.rewriteTarget(request("/my-app/a")), is("http://localhost:54321/my-app/a"));
+        assertThat(reverseProxy.rewriteTarget(request("/my-app/a")), is("http://localhost:12345/my-app/a"));
+        for (int i = 0; i < 2; i++) {
+            assertThat(reverseProxy.rewriteTarget(request("POST", "/api/v1/apps/my-app/deploy")), is("http://localhost:12345/api/v1/apps/my-app/deploy"));
+        }
+    }
+
+    @Test
+    public void replicasOnRunnersThatSeemToBeDownAreAvoided() throws Exception {
+        context.checking(new Expectations() {{
+            allowing(mapManager).loadRunner(with(any(URI.class)), with(any(Runner.class)));
+        }});
+        Runner down = new Runner("down", URI.create("http://localhost:12345"), 10);
+        cluster.addRunner(URI.create("http://localhost"), down);
+        cluster.addRunner(URI.create("http://localhost"), new Runner("up", URI.create("http://localhost:54321"), 10));
+        proxyMap.add("my-app", URI.create("http://localhost:12345/my-app"));
+        proxyMap.add("my-app", URI.create("http://localhost:54321/my-app"));
+        down.circuitBreaker().onHealthCheckFailure("Connection refused");
+        for (int i = 0; i < 3; i++) {
+            assertThat(reverseProxy.rewriteTarget(request("/my-app/a")), is("http://localhost:54321/my-app/a"));
+        }
+        assertThat(reverseProxy.rewriteTarget(request("GET", "/api/v1/system")), is("http://localhost:54321/api/v1/system"));
+    }
+
     private HttpServletRequest request(String path) throws MalformedURLException {
+        return request(null, path);
+    }
+
+    private HttpServletRequest request(String method, String path) throws MalformedURLException {
         URL url = new URL("http://localhost" + path);
         return new HttpServletRequest() {
             public String getAuthType() {
@@ -92,7 +136,7 @@ public class ReverseProxyTest {
             }
 
             public String getMethod() {
-                return null;
+                return method;
             }
 
             public String getPathInfo() {
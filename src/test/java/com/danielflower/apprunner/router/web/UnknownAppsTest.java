@@ -0,0 +1,80 @@
+package com.danielflower.apprunner.router.web;
+
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class UnknownAppsTest {
+
+    private final ProxyMap proxyMap = new ProxyMap();
+
+    @Test
+    public void namesAreForgottenWhenARouteAppears() {
+        UnknownApps unknownApps = new UnknownApps(proxyMap, 10, 60000);
+        unknownApps.add("my-app");
+        unknownApps.add("other-app");
+        assertThat(unknownApps.contains("my-app"), is(true));
+
+        proxyMap.add("my-app", URI.create("http://localhost:12345/my-app"));
+        assertThat(unknownApps.contains("my-app"), is(false));
+        assertThat(unknownApps.contains("other-app"), is(true));
+        assertThat(unknownApps.hits(), is(2L));
+    }
+
+    @Test
+    public void namesAreForgottenAfterTheTTL() throws InterruptedException {
+        UnknownApps unknownApps = new UnknownApps(proxyMap, 10, 50);
+        unknownApps.add("my-app");
+        assertThat(unknownApps.contains("my-app"), is(true));
+        Thread.sleep(100);
+        assertThat(unknownApps.contains("my-app"), is(false));
+        assertThat(unknownApps.size(), is(0));
+    }
+
+    @Test
+    public void theNumberOfNamesIsBounded() {
+        UnknownApps unknownApps = new UnknownApps(proxyMap, 100, 60000);
+        for (int i = 0; i < 1000; i++) {
+            unknownApps.add("app-" + i);
+        }
+        assertThat(unknownApps.size(), is(100));
+        assertThat(unknownApps.contains("app-999"), is(true));
+    }
+
+    @Test
+    public void theOldestNamesMakeWayForNewOnes() {
+        UnknownApps unknownApps = new UnknownApps(proxyMap, 3, 60000);
+        unknownApps.add("one");
+        unknownApps.add("two");
+        unknownApps.add("three");
+        unknownApps.add("one");
+        unknownApps.add("four");
+        assertThat(unknownApps.contains("two"), is(false));
+        assertThat(unknownApps.contains("one"), is(true));
+        assertThat(unknownApps.contains("three"), is(true));
+        assertThat(unknownApps.contains("four"), is(true));
+    }
+
+    @Test
+    public void expiredNamesAreDroppedAsNewOnesAreAdded() throws InterruptedException {
+        UnknownApps unknownApps = new UnknownApps(proxyMap, 10, 50);
+        unknownApps.add("one");
+        unknownApps.add("two");
+        Thread.sleep(100);
+        unknownApps.add("three");
+        assertThat(unknownApps.size(), is(1));
+    }
+
+    @Test
+    public void aSizeOrTTLOfZeroTurnsItOff() {
+        UnknownApps noSize = new UnknownApps(proxyMap, 0, 60000);
+        noSize.add("my-app");
+        assertThat(noSize.contains("my-app"), is(false));
+        UnknownApps noTTL = new UnknownApps(proxyMap, 10, 0);
+        noTTL.add("my-app");
+        assertThat(noTTL.contains("my-app"), is(false));
+    }
+}
@@ -0,0 +1,204 @@
+package scaffolding;
+
+import com.danielflower.apprunner.router.mgmt.Runner;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A stand-in for an app runner that serves a configurable list of apps from <code>/api/v1/apps</code>, which is
+ * much faster to start than a real app runner. Each app is at <code>/api/v1/apps/{name}</code> and its web
+ * interface at <code>/{name}</code> just says which app it is. A <code>POST</code> to <code>/api/v1/apps</code> with an
+ * <code>appName</code> parameter creates that app. The delay, if set, applies to all of these.
+ */
+public class FakeRunner implements AutoCloseable {
+
+    private final Server server = new Server(0);
+    private final List<String> apps = new CopyOnWriteArrayList<>();
+    private final AtomicInteger appsRequests = new AtomicInteger();
+    private final AtomicInteger appRequests = new AtomicInteger();
+    private volatile int status = 200;
+    private volatile long delayMillis = 0;
+    private volatile boolean etags = false;
+    private volatile boolean locations = true;
+    private volatile String lastHost;
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+    private final CountDownLatch closing = new CountDownLatch(1);
+
+    public static FakeRunner start(String... apps) throws Exception {
+        FakeRunner runner = new FakeRunner();
+        runner.setApps(apps);
+        runner.server.setHandler(runner.new Handler());
+        runner.server.start();
+        return runner;
+    }
+
+    public URI url() {
+        return URI.create("http://localhost:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort());
+    }
+
+    public Runner toRunner(String id, int maxApps) {
+        return new Runner(id, url(), maxApps);
+    }
+
+    public void setApps(String... names) {
+        apps.clear();
+        for (String name : names) {
+            apps.add(name);
+        }
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public void setDelay(long millis) {
+        this.delayMillis = millis;
+    }
+
+    /**
+     * When on, responses have an ETag and requests with a matching If-None-Match get a 304
+     */
+    public void setETags(boolean etags) {
+        this.etags = etags;
+    }
+
+    /**
+     * When off, apps created by a <code>POST</code> get a 201 with no Location header
+     */
+    public void setLocations(boolean locations) {
+        this.locations = locations;
+    }
+
+    /**
+     * @return The names of the apps, including any created by a <code>POST</code>
+     */
+    public List<String> apps() {
+        return new ArrayList<>(apps);
+    }
+
+    public int notModifiedResponses() {
+        return notModifiedResponses.get();
+    }
+
+    public int appsRequests() {
+        return appsRequests.get();
+    }
+
+    /**
+     * @return The Host header of the last request, without the port
+     */
+    public String lastHost() {
+        return lastHost;
+    }
+
+    /**
+     * @return The number of <code>GET /api/v1/apps/{name}</code> calls made
+     */
+    public int appRequests() {
+        return appRequests.get();
+    }
+
+    private class Handler extends AbstractHandler {
+        public void handle(String target, Request baseRequest, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            baseRequest.setHandled(true);
+            lastHost = request.getServerName();
+            if ("/api/v1/system".equals(target)) {
+                delay();
+                response.setStatus(status);
+                response.setContentType("application/json");
+                response.getWriter().append("{}").close();
+                return;
+            }
+            if (target.startsWith("/api/v1/apps/")) {
+                appRequests.incrementAndGet();
+                delay();
+                handleApp(target.substring("/api/v1/apps/".length()), request, response);
+                return;
+            }
+            if (!"/api/v1/apps".equals(target)) {
+                String name = target.substring(1).split("/")[0];
+                if (apps.contains(name)) {
+                    delay();
+                    response.getWriter().append("Hello from " + name).close();
+                } else {
+                    response.sendError(404);
+                }
+                return;
+            }
+            appsRequests.incrementAndGet();
+            delay();
+            String created = request.getParameter("appName");
+            if ("POST".equals(request.getMethod()) && created != null) {
+                apps.add(created);
+                response.setStatus(201);
+                if (locations) {
+                    response.setHeader("Location", "http://" + request.getHeader("Host") + "/api/v1/apps/" + created);
+                }
+                response.setContentType("application/json");
+                response.getWriter().append(new JSONObject().put("name", created).toString()).close();
+                return;
+            }
+            JSONArray all = new JSONArray();
+            for (String app : apps) {
+                all.put(new JSONObject()
+                    .put("name", app)
+                    .put("url", "http://" + request.getHeader("Host") + "/" + app + "/"));
+            }
+            String json = new JSONObject().put("apps", all).toString();
+            if (etags && status == 200) {
+                String etag = "\"" + Integer.toHexString(json.hashCode()) + "\"";
+                response.setHeader("ETag", etag);
+                if (etag.equals(request.getHeader("If-None-Match"))) {
+                    notModifiedResponses.incrementAndGet();
+                    response.setStatus(304);
+                    return;
+                }
+            }
+            response.setStatus(status);
+            response.setContentType("application/json");
+            response.getWriter().append(json).close();
+        }
+
+        private void handleApp(String name, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            if (!apps.contains(name)) {
+                response.sendError(404);
+                return;
+            }
+            response.setContentType("application/json");
+            response.getWriter().append(new JSONObject()
+                .put("name", name)
+                .put("url", "http://" + request.getHeader("Host") + "/" + name + "/")
+                .toString()).close();
+        }
+
+        private void delay() {
+            if (delayMillis > 0) {
+                try {
+                    closing.await(delayMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    public void close() throws Exception {
+        closing.countDown();
+        server.stop();
+    }
+}